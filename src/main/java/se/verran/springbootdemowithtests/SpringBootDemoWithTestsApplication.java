@@ -2,8 +2,10 @@ package se.verran.springbootdemowithtests;
 
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.scheduling.annotation.EnableScheduling;
 
 @SpringBootApplication
+@EnableScheduling
 public class SpringBootDemoWithTestsApplication {
 
     public static void main(String[] args) {
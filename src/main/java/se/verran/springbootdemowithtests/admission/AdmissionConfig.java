@@ -0,0 +1,31 @@
+package se.verran.springbootdemowithtests.admission;
+
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.web.servlet.config.annotation.InterceptorRegistry;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+
+@Configuration
+@ConditionalOnProperty(name = "admission.enabled", havingValue = "true", matchIfMissing = true)
+@EnableConfigurationProperties(AdmissionProperties.class)
+public class AdmissionConfig implements WebMvcConfigurer {
+    private final AdmissionProperties properties;
+
+    public AdmissionConfig(AdmissionProperties properties) {
+        this.properties = properties;
+    }
+
+    @Bean
+    @Lazy(false)
+    public AdmissionInterceptor admissionInterceptor() {
+        return new AdmissionInterceptor(properties, System::nanoTime);
+    }
+
+    @Override
+    public void addInterceptors(InterceptorRegistry registry) {
+        registry.addInterceptor(admissionInterceptor()).addPathPatterns("/edu/api/**");
+    }
+}
@@ -0,0 +1,78 @@
+package se.verran.springbootdemowithtests.admission;
+
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.web.method.HandlerMethod;
+import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.servlet.HandlerInterceptor;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+// Rejects requests with 429 before they reach the database: every client gets a token bucket per
+// endpoint cost, and scans are also limited in how many may run at once
+public class AdmissionInterceptor implements HandlerInterceptor {
+    private static final String SCAN_PERMIT = AdmissionInterceptor.class.getName() + ".scanPermit";
+
+    private final AdmissionProperties properties;
+    private final LongSupplier nanoClock;
+    private final Map<String, TokenBucket> buckets = new ConcurrentHashMap<>();
+    private final Semaphore scanPermits;
+
+    public AdmissionInterceptor(AdmissionProperties properties, LongSupplier nanoClock) {
+        this.properties = properties;
+        this.nanoClock = nanoClock;
+        this.scanPermits = new Semaphore(properties.getMaxConcurrentScans());
+    }
+
+    @Override
+    public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler) {
+        if (!(handler instanceof HandlerMethod handlerMethod))
+            return true;
+        EndpointCost endpointCost = handlerMethod.getMethodAnnotation(EndpointCost.class);
+        EndpointCost.Cost cost = endpointCost == null ? EndpointCost.Cost.POINT : endpointCost.value();
+
+        // The permit is taken first, a client turned away because others are scanning keeps its token
+        boolean scan = cost == EndpointCost.Cost.SCAN;
+        if (scan && !scanPermits.tryAcquire())
+            reject(response, TimeUnit.SECONDS.toNanos(1), "Too many heavy requests running, try again shortly");
+
+        AdmissionProperties.Limit limit = properties.limitFor(cost);
+        TokenBucket bucket = buckets.computeIfAbsent(request.getRemoteAddr() + "|" + cost,
+                key -> new TokenBucket(limit.getCapacity(), limit.getRefillPerSecond(), nanoClock));
+        long waitNanos = bucket.tryConsume();
+        if (waitNanos > 0) {
+            if (scan)
+                scanPermits.release();
+            reject(response, waitNanos, "Too many " + cost.name().toLowerCase() + " requests, slow down");
+        }
+        if (scan)
+            request.setAttribute(SCAN_PERMIT, true);
+        return true;
+    }
+
+    @Override
+    public void afterCompletion(HttpServletRequest request, HttpServletResponse response, Object handler, Exception ex) {
+        if (request.getAttribute(SCAN_PERMIT) != null) {
+            request.removeAttribute(SCAN_PERMIT);
+            scanPermits.release();
+        }
+    }
+
+    @Scheduled(fixedDelay = 60_000)
+    public void dropFullBuckets() {
+        buckets.values().removeIf(TokenBucket::isFull);
+    }
+
+    private static void reject(HttpServletResponse response, long waitNanos, String message) {
+        long retryAfterSeconds = Math.max(1, (long) Math.ceil(waitNanos / 1_000_000_000d));
+        response.setHeader(HttpHeaders.RETRY_AFTER, String.valueOf(retryAfterSeconds));
+        throw new ResponseStatusException(HttpStatus.TOO_MANY_REQUESTS, message);
+    }
+}
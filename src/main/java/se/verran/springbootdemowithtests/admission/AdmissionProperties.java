@@ -0,0 +1,101 @@
+package se.verran.springbootdemowithtests.admission;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+@ConfigurationProperties("admission")
+public class AdmissionProperties {
+    private boolean enabled = true;
+    private Limit point = new Limit(100, 50);
+    private Limit search = new Limit(30, 10);
+    private Limit write = new Limit(20, 10);
+    private Limit scan = new Limit(5, 1);
+    // Scan requests running at the same time, over all clients
+    private int maxConcurrentScans = 4;
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public Limit getPoint() {
+        return point;
+    }
+
+    public void setPoint(Limit point) {
+        this.point = point;
+    }
+
+    public Limit getSearch() {
+        return search;
+    }
+
+    public void setSearch(Limit search) {
+        this.search = search;
+    }
+
+    public Limit getWrite() {
+        return write;
+    }
+
+    public void setWrite(Limit write) {
+        this.write = write;
+    }
+
+    public Limit getScan() {
+        return scan;
+    }
+
+    public void setScan(Limit scan) {
+        this.scan = scan;
+    }
+
+    public int getMaxConcurrentScans() {
+        return maxConcurrentScans;
+    }
+
+    public void setMaxConcurrentScans(int maxConcurrentScans) {
+        this.maxConcurrentScans = maxConcurrentScans;
+    }
+
+    public Limit limitFor(EndpointCost.Cost cost) {
+        return switch (cost) {
+            case POINT -> point;
+            case SEARCH -> search;
+            case WRITE -> write;
+            case SCAN -> scan;
+        };
+    }
+
+    // Per client: a burst of capacity requests, then refillPerSecond requests per second
+    public static class Limit {
+        private int capacity;
+        private double refillPerSecond;
+
+        public Limit() {
+        }
+
+        public Limit(int capacity, double refillPerSecond) {
+            this.capacity = capacity;
+            this.refillPerSecond = refillPerSecond;
+        }
+
+        public int getCapacity() {
+            return capacity;
+        }
+
+        public void setCapacity(int capacity) {
+            this.capacity = capacity;
+        }
+
+        public double getRefillPerSecond() {
+            return refillPerSecond;
+        }
+
+        public void setRefillPerSecond(double refillPerSecond) {
+            this.refillPerSecond = refillPerSecond;
+        }
+    }
+}
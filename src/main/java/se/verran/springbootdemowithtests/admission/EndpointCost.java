@@ -0,0 +1,16 @@
+package se.verran.springbootdemowithtests.admission;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+// How expensive a controller method is for the database, endpoints without it count as POINT.
+// SEARCH is answered from memory but costs more CPU than a lookup by id
+@Target(ElementType.METHOD)
+@Retention(RetentionPolicy.RUNTIME)
+public @interface EndpointCost {
+    Cost value();
+
+    enum Cost { POINT, SEARCH, WRITE, SCAN }
+}
@@ -0,0 +1,43 @@
+package se.verran.springbootdemowithtests.controllers;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+import se.verran.springbootdemowithtests.admission.EndpointCost;
+import se.verran.springbootdemowithtests.entities.Course;
+import se.verran.springbootdemowithtests.entities.Grade;
+import se.verran.springbootdemowithtests.services.CourseService;
+import se.verran.springbootdemowithtests.services.StudentGrades;
+
+import java.util.List;
+
+@RestController
+@RequestMapping("/edu/api/v1/course")
+public class CourseController {
+    private final CourseService courseService;
+
+    @Autowired
+    public CourseController(CourseService courseService) {
+        this.courseService = courseService;
+    }
+
+    @EndpointCost(EndpointCost.Cost.WRITE)
+    @PostMapping("/addcourse")
+    public ResponseEntity<Course> addCourse(@RequestBody Course course){
+        return ResponseEntity.ok(courseService.addCourse(course));
+    }
+    @GetMapping("/getallcourses")
+    public ResponseEntity<List<Course>> getAllCourses(){
+        return ResponseEntity.ok(courseService.getAllCourses());
+    }
+    @EndpointCost(EndpointCost.Cost.WRITE)
+    @PutMapping("/setgrade/{courseCode}/{studentId}/{grade}")
+    public ResponseEntity<Grade> setGrade(@PathVariable String courseCode, @PathVariable int studentId, @PathVariable String grade){
+        return ResponseEntity.ok(courseService.setGrade(studentId, courseCode, grade));
+    }
+    @GetMapping("/studentswithgrades")
+    public ResponseEntity<List<StudentGrades>> getStudentsWithGrades(@RequestParam(defaultValue = "0") int page,
+                                                                     @RequestParam(defaultValue = "20") int size){
+        return ResponseEntity.ok(courseService.getStudentsWithGrades(page, size));
+    }
+}
@@ -0,0 +1,49 @@
+package se.verran.springbootdemowithtests.controllers;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.io.FileSystemResource;
+import org.springframework.core.io.Resource;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+import se.verran.springbootdemowithtests.admission.EndpointCost;
+import se.verran.springbootdemowithtests.reports.ReportJob;
+import se.verran.springbootdemowithtests.reports.ReportJobService;
+import se.verran.springbootdemowithtests.reports.ReportType;
+
+import java.nio.file.Path;
+
+@RestController
+@RequestMapping("/edu/api/v1/reports")
+public class ReportController {
+    private final ReportJobService reportJobService;
+
+    @Autowired
+    public ReportController(ReportJobService reportJobService) {
+        this.reportJobService = reportJobService;
+    }
+
+    // Queues the report and answers right away, poll the job until it is DONE
+    @EndpointCost(EndpointCost.Cost.WRITE)
+    @PostMapping("/{type}")
+    public ResponseEntity<ReportJob> submitReport(@PathVariable ReportType type, @RequestParam(defaultValue = "0") int groupSize){
+        return ResponseEntity.accepted().body(reportJobService.submit(type, groupSize));
+    }
+    @GetMapping("/{id}")
+    public ResponseEntity<ReportJob> getReportJob(@PathVariable String id){
+        return ResponseEntity.ok(reportJobService.getJob(id));
+    }
+    @GetMapping("/{id}/result")
+    public ResponseEntity<Resource> downloadReport(@PathVariable String id){
+        Path result = reportJobService.getResult(id);
+        return ResponseEntity.ok()
+                .header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"" + result.getFileName() + "\"")
+                .contentType(MediaType.parseMediaType("text/csv"))
+                .body(new FileSystemResource(result));
+    }
+    @DeleteMapping("/{id}")
+    public ResponseEntity<ReportJob> cancelReport(@PathVariable String id){
+        return ResponseEntity.ok(reportJobService.cancel(id));
+    }
+}
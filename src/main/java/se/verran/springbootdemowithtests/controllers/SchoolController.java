@@ -5,11 +5,13 @@ import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RestController;
+import se.verran.springbootdemowithtests.admission.EndpointCost;
 import se.verran.springbootdemowithtests.entities.Student;
 import se.verran.springbootdemowithtests.services.SchoolService;
 import se.verran.springbootdemowithtests.services.StudentService;
 
 import java.util.List;
+import java.util.Map;
 
 @RestController
 @RequestMapping("/edu/api/v1/school")
@@ -23,9 +25,17 @@ public class SchoolController {
         this.schoolService = schoolService;
     }
 
+    // No SCAN cost on the counts, the groups and the average: SchoolService coalesces and memoizes them
+    // and each is a single aggregate, so a burst of requests shares one computation and shouldn't be
+    // turned away by the limit on concurrent scans. The top students return a fifth of the roster or
+    // course and every write clears the memo, so they and the per course statistics stay SCAN.
+    // With roster.snapshot.enabled the count, the groups and the average grade are answered from the
+    // roster snapshot. Changes made through this instance show up right away, changes made through other
+    // instances or straight in the database only after the next catch up, roster.snapshot.interval-ms
+    // (5 minutes by default) at the latest
     @GetMapping("/countstudents")
     public ResponseEntity<Integer> countStudents(){
-        return ResponseEntity.ok(studentService.getAllStudents().size());
+        return ResponseEntity.ok(schoolService.countStudents());
     }
     @GetMapping("/divideintogroupsof/{n}")
     public ResponseEntity<String> getNumberOfGroupsWhenNStudentsPerGroup(@PathVariable int n){
@@ -39,8 +49,24 @@ public class SchoolController {
     public ResponseEntity<String> getAverageGrade(){
         return ResponseEntity.ok(schoolService.calculateAverageGrade());
     }
+    @EndpointCost(EndpointCost.Cost.SCAN)
     @GetMapping("/top20percentscoringstudents")
     public ResponseEntity<List<Student>> getTopScoringStudents(){
         return ResponseEntity.ok(schoolService.getTopScoringStudents());
     }
+    @EndpointCost(EndpointCost.Cost.SCAN)
+    @GetMapping("/averagegrade/{courseCode}")
+    public ResponseEntity<String> getAverageGradeInCourse(@PathVariable String courseCode){
+        return ResponseEntity.ok(schoolService.calculateAverageGrade(courseCode));
+    }
+    @EndpointCost(EndpointCost.Cost.SCAN)
+    @GetMapping("/top20percentscoringstudents/{courseCode}")
+    public ResponseEntity<List<Student>> getTopScoringStudentsInCourse(@PathVariable String courseCode){
+        return ResponseEntity.ok(schoolService.getTopScoringStudents(courseCode));
+    }
+    @EndpointCost(EndpointCost.Cost.SCAN)
+    @GetMapping("/gradehistogram/{courseCode}")
+    public ResponseEntity<Map<Integer, Long>> getGradeHistogramInCourse(@PathVariable String courseCode){
+        return ResponseEntity.ok(schoolService.getGradeHistogram(courseCode));
+    }
 }
@@ -1,23 +1,35 @@
 package se.verran.springbootdemowithtests.controllers;
 
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+import se.verran.springbootdemowithtests.admission.EndpointCost;
 import se.verran.springbootdemowithtests.entities.Student;
+import se.verran.springbootdemowithtests.events.StudentChange;
+import se.verran.springbootdemowithtests.events.StudentChangeStream;
+import se.verran.springbootdemowithtests.search.StudentSearchIndex;
 import se.verran.springbootdemowithtests.services.StudentService;
 
+import java.io.IOException;
 import java.util.List;
 
 @RestController
 @RequestMapping("/edu/api/v1")
 public class StudentController {
     private final StudentService studentService;
+    private final StudentSearchIndex studentSearchIndex;
+    private final StudentChangeStream studentChangeStream;
 
     @Autowired
-    public StudentController(StudentService studentService) {
+    public StudentController(StudentService studentService, StudentSearchIndex studentSearchIndex, StudentChangeStream studentChangeStream) {
         this.studentService = studentService;
+        this.studentSearchIndex = studentSearchIndex;
+        this.studentChangeStream = studentChangeStream;
     }
 
+    @EndpointCost(EndpointCost.Cost.WRITE)
     @PostMapping("/addstudent")
     public ResponseEntity<Student> addStudent(@RequestBody Student student){
         return ResponseEntity.ok(studentService.addStudent(student));
@@ -26,21 +38,67 @@ public class StudentController {
     public ResponseEntity<Student> getStudentById(@PathVariable int id){
         return ResponseEntity.ok(studentService.getStudentById(id));
     }
+    @EndpointCost(EndpointCost.Cost.SCAN)
     @GetMapping("/getallstudents")
     public ResponseEntity<List<Student>> getAllStudents(){
         return ResponseEntity.ok(studentService.getAllStudents());
     }
+    @EndpointCost(EndpointCost.Cost.SEARCH)
+    @GetMapping("/searchstudents")
+    public ResponseEntity<List<Student>> searchStudents(@RequestParam String q,
+                                                        @RequestParam(defaultValue = "0") int page,
+                                                        @RequestParam(defaultValue = "20") int size){
+        return ResponseEntity.ok(studentSearchIndex.search(q, page, size));
+    }
+    @EndpointCost(EndpointCost.Cost.WRITE)
     @PutMapping("/updatestudent")
     public ResponseEntity<Student> updateStudentById(@RequestBody Student student){
         return ResponseEntity.ok(studentService.updateStudent(student));
     }
+    @EndpointCost(EndpointCost.Cost.WRITE)
+    @PatchMapping("/patchstudent/{id}")
+    public ResponseEntity<String> patchStudentById(@PathVariable int id, @RequestBody Student changes){
+        int newVersion = studentService.patchStudent(id, changes);
+        return ResponseEntity.ok("Student by id " + id + " updated to version " + newVersion);
+    }
+    @EndpointCost(EndpointCost.Cost.WRITE)
     @PutMapping("/setgrade/{studentId}/{grade}")
     public ResponseEntity<Student> setGradeForStudentById(@PathVariable int studentId, @PathVariable String grade){
         return ResponseEntity.ok(studentService.setGradeForStudentById(studentId, grade));
     }
+    @EndpointCost(EndpointCost.Cost.WRITE)
     @DeleteMapping("/deletestudentbyid/{id}")
     public ResponseEntity<String> deleteStudentById(@PathVariable int id){
         studentService.deleteStudent(id);
         return ResponseEntity.ok("Student by id " + id + " deleted");
     }
+    @EndpointCost(EndpointCost.Cost.WRITE)
+    @DeleteMapping("/deletestudentsbyid")
+    public ResponseEntity<String> deleteStudentsById(@RequestParam List<Integer> ids){
+        return ResponseEntity.ok(studentService.deleteStudents(ids) + " students deleted");
+    }
+    // Reconnecting clients send the id of the last event they got as Last-Event-ID and continue from there
+    @GetMapping(path = "/studentchanges", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public SseEmitter streamStudentChanges(@RequestHeader(name = "Last-Event-ID", required = false) String lastEventId){
+        SseEmitter emitter = new SseEmitter(studentChangeStream.getEmitterTimeoutMillis());
+        StudentChangeStream.Subscription subscription = studentChangeStream.subscribe(lastEventId,
+                new StudentChangeStream.ChangeSink() {
+                    @Override
+                    public void send(StudentChange change) throws IOException {
+                        emitter.send(SseEmitter.event()
+                                .id(change.getId())
+                                .name(change.getType())
+                                .data(change, MediaType.APPLICATION_JSON));
+                    }
+
+                    @Override
+                    public void close() {
+                        emitter.complete();
+                    }
+                });
+        emitter.onCompletion(subscription::close);
+        emitter.onTimeout(subscription::close);
+        emitter.onError(error -> subscription.close());
+        return emitter;
+    }
 }
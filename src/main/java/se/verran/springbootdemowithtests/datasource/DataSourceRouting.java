@@ -0,0 +1,25 @@
+package se.verran.springbootdemowithtests.datasource;
+
+import java.util.function.Supplier;
+
+// Lets a read only transaction insist on the primary, e.g. to read a student it just wrote
+public final class DataSourceRouting {
+    private static final ThreadLocal<Boolean> PRIMARY_REQUIRED = ThreadLocal.withInitial(() -> false);
+
+    private DataSourceRouting() {
+    }
+
+    public static <T> T onPrimary(Supplier<T> work) {
+        boolean previous = PRIMARY_REQUIRED.get();
+        PRIMARY_REQUIRED.set(true);
+        try {
+            return work.get();
+        } finally {
+            PRIMARY_REQUIRED.set(previous);
+        }
+    }
+
+    static boolean isPrimaryRequired() {
+        return PRIMARY_REQUIRED.get();
+    }
+}
@@ -0,0 +1,38 @@
+package se.verran.springbootdemowithtests.datasource;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Remembers which students were just written, so reading them back can skip a possibly lagging replica
+@Component
+public class RecentWrites {
+    private static final int PRUNE_THRESHOLD = 10_000;
+
+    private final long windowMillis;
+    private final Map<Integer, Long> lastWriteByStudentId = new ConcurrentHashMap<>();
+
+    public RecentWrites(@Value("${student.datasource.routing.read-your-writes-window-ms:5000}") long windowMillis) {
+        this.windowMillis = windowMillis;
+    }
+
+    public void recordWrite(int studentId) {
+        long now = System.currentTimeMillis();
+        lastWriteByStudentId.put(studentId, now);
+        if (lastWriteByStudentId.size() > PRUNE_THRESHOLD)
+            lastWriteByStudentId.values().removeIf(writtenAt -> now - writtenAt > windowMillis);
+    }
+
+    public boolean isRecent(int studentId) {
+        Long writtenAt = lastWriteByStudentId.get(studentId);
+        if (writtenAt == null)
+            return false;
+        if (System.currentTimeMillis() - writtenAt > windowMillis) {
+            lastWriteByStudentId.remove(studentId, writtenAt);
+            return false;
+        }
+        return true;
+    }
+}
@@ -0,0 +1,45 @@
+package se.verran.springbootdemowithtests.datasource;
+
+import org.springframework.scheduling.annotation.Scheduled;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.Duration;
+
+// Takes replicas that are down or lagging out of rotation and puts them back once they recover
+public class ReplicaHealthChecker {
+    private final ReplicaRoutingDataSource routingDataSource;
+    // Should return the replication lag in seconds, blank means only check that the replica answers
+    private final String lagQuery;
+    private final Duration maxLag;
+
+    public ReplicaHealthChecker(ReplicaRoutingDataSource routingDataSource, String lagQuery, Duration maxLag) {
+        this.routingDataSource = routingDataSource;
+        this.lagQuery = lagQuery;
+        this.maxLag = maxLag;
+    }
+
+    @Scheduled(fixedDelayString = "${student.datasource.routing.health-check-interval-ms:5000}")
+    public void checkReplicas() {
+        routingDataSource.getReplicas().forEach((key, dataSource) -> routingDataSource.markHealthy(key, isHealthy(dataSource)));
+    }
+
+    boolean isHealthy(DataSource dataSource) {
+        try (Connection connection = dataSource.getConnection()) {
+            if (!connection.isValid(1))
+                return false;
+            if (lagQuery == null || lagQuery.isBlank())
+                return true;
+            try (Statement statement = connection.createStatement();
+                 ResultSet resultSet = statement.executeQuery(lagQuery)) {
+                // No row or null lag means replication isn't running
+                return resultSet.next() && resultSet.getObject(1) != null && resultSet.getLong(1) <= maxLag.toSeconds();
+            }
+        } catch (SQLException e) {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,65 @@
+package se.verran.springbootdemowithtests.datasource;
+
+import org.springframework.jdbc.datasource.lookup.AbstractRoutingDataSource;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import javax.sql.DataSource;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Sends read only transactions round robin to the healthy replicas and everything else to the primary.
+// Has to sit behind a LazyConnectionDataSourceProxy, otherwise the connection is picked before
+// the transaction is marked read only
+public class ReplicaRoutingDataSource extends AbstractRoutingDataSource implements AutoCloseable {
+    static final String PRIMARY = "primary";
+
+    private final Map<String, DataSource> replicas;
+    private final List<String> replicaKeys;
+    private final Map<String, Boolean> healthyReplicas = new ConcurrentHashMap<>();
+    private final AtomicInteger nextReplica = new AtomicInteger();
+
+    public ReplicaRoutingDataSource(DataSource primary, Map<String, DataSource> replicas) {
+        this.replicas = Map.copyOf(replicas);
+        this.replicaKeys = List.copyOf(replicas.keySet());
+        replicaKeys.forEach(key -> healthyReplicas.put(key, true));
+        Map<Object, Object> targetDataSources = new HashMap<>(replicas);
+        targetDataSources.put(PRIMARY, primary);
+        setTargetDataSources(targetDataSources);
+        setDefaultTargetDataSource(primary);
+    }
+
+    @Override
+    protected Object determineCurrentLookupKey() {
+        if (!TransactionSynchronizationManager.isCurrentTransactionReadOnly() || DataSourceRouting.isPrimaryRequired())
+            return PRIMARY;
+        for (int i = 0; i < replicaKeys.size(); i++) {
+            String key = replicaKeys.get(Math.floorMod(nextReplica.getAndIncrement(), replicaKeys.size()));
+            if (healthyReplicas.get(key))
+                return key;
+        }
+        // No replica to trust, the primary can serve reads as well
+        return PRIMARY;
+    }
+
+    public Map<String, DataSource> getReplicas() {
+        return replicas;
+    }
+
+    public void markHealthy(String replicaKey, boolean healthy) {
+        healthyReplicas.put(replicaKey, healthy);
+    }
+
+    public boolean isHealthy(String replicaKey) {
+        return healthyReplicas.getOrDefault(replicaKey, false);
+    }
+
+    @Override
+    public void close() throws Exception {
+        for (DataSource dataSource : getResolvedDataSources().values())
+            if (dataSource instanceof AutoCloseable closeable)
+                closeable.close();
+    }
+}
@@ -0,0 +1,53 @@
+package se.verran.springbootdemowithtests.datasource;
+
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceProperties;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.boot.jdbc.DataSourceBuilder;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.context.annotation.Primary;
+import org.springframework.jdbc.datasource.LazyConnectionDataSourceProxy;
+
+import javax.sql.DataSource;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+// The primary is the regular spring.datasource, replicas come from student.datasource.routing.replicas
+@Configuration
+@ConditionalOnProperty(name = "student.datasource.routing.enabled", havingValue = "true")
+@EnableConfigurationProperties(RoutingDataSourceProperties.class)
+public class RoutingDataSourceConfig {
+
+    @Bean
+    public ReplicaRoutingDataSource replicaRoutingDataSource(DataSourceProperties primaryProperties,
+                                                             RoutingDataSourceProperties routingProperties) {
+        DataSource primary = primaryProperties.initializeDataSourceBuilder().build();
+        Map<String, DataSource> replicas = new LinkedHashMap<>();
+        List<RoutingDataSourceProperties.Replica> replicaProperties = routingProperties.getReplicas();
+        for (int i = 0; i < replicaProperties.size(); i++) {
+            RoutingDataSourceProperties.Replica replica = replicaProperties.get(i);
+            replicas.put("replica-" + i, DataSourceBuilder.create()
+                    .url(replica.getUrl())
+                    .username(replica.getUsername())
+                    .password(replica.getPassword())
+                    .build());
+        }
+        return new ReplicaRoutingDataSource(primary, replicas);
+    }
+
+    @Bean
+    @Primary
+    public DataSource dataSource(ReplicaRoutingDataSource replicaRoutingDataSource) {
+        return new LazyConnectionDataSourceProxy(replicaRoutingDataSource);
+    }
+
+    @Bean
+    @Lazy(false)
+    public ReplicaHealthChecker replicaHealthChecker(ReplicaRoutingDataSource replicaRoutingDataSource,
+                                                     RoutingDataSourceProperties routingProperties) {
+        return new ReplicaHealthChecker(replicaRoutingDataSource, routingProperties.getLagQuery(), routingProperties.getMaxLag());
+    }
+}
@@ -0,0 +1,47 @@
+package se.verran.springbootdemowithtests.entities;
+
+import jakarta.persistence.*;
+
+@Entity
+public class Course {
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private int id;
+    // Short and stable, used in urls, e.g. JAVA1
+    @Column(length = 20, nullable = false, unique = true)
+    private String code;
+    @Column(length = 100, nullable = false)
+    private String name;
+
+    public Course() {
+    }
+
+    public Course(String code, String name) {
+        this.code = code;
+        this.name = name;
+    }
+
+    public int getId() {
+        return id;
+    }
+
+    public void setId(int id) {
+        this.id = id;
+    }
+
+    public String getCode() {
+        return code;
+    }
+
+    public void setCode(String code) {
+        this.code = code;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public void setName(String name) {
+        this.name = name;
+    }
+}
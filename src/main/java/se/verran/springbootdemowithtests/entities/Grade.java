@@ -0,0 +1,56 @@
+package se.verran.springbootdemowithtests.entities;
+
+import jakarta.persistence.*;
+
+// One row per student and course. Plain id columns rather than associations, so listing grades
+// never pulls in students or courses, see CourseService.withGrades
+@Entity
+@IdClass(GradeId.class)
+@Table(indexes = {
+        @Index(name = "idx_grade_student", columnList = "student_id"),
+        // Per course average, top and histogram read only this index
+        @Index(name = "idx_grade_course_value", columnList = "course_id, grade_value")
+})
+public class Grade {
+    @Id
+    @Column(name = "student_id")
+    private int studentId;
+    @Id
+    @Column(name = "course_id")
+    private int courseId;
+    @Column(name = "grade_value", nullable = false)
+    private double value;
+
+    public Grade() {
+    }
+
+    public Grade(int studentId, int courseId, double value) {
+        this.studentId = studentId;
+        this.courseId = courseId;
+        this.value = value;
+    }
+
+    public int getStudentId() {
+        return studentId;
+    }
+
+    public void setStudentId(int studentId) {
+        this.studentId = studentId;
+    }
+
+    public int getCourseId() {
+        return courseId;
+    }
+
+    public void setCourseId(int courseId) {
+        this.courseId = courseId;
+    }
+
+    public double getValue() {
+        return value;
+    }
+
+    public void setValue(double value) {
+        this.value = value;
+    }
+}
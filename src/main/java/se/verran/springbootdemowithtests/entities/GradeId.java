@@ -0,0 +1,39 @@
+package se.verran.springbootdemowithtests.entities;
+
+import java.io.Serializable;
+import java.util.Objects;
+
+public class GradeId implements Serializable {
+    private int studentId;
+    private int courseId;
+
+    public GradeId() {
+    }
+
+    public GradeId(int studentId, int courseId) {
+        this.studentId = studentId;
+        this.courseId = courseId;
+    }
+
+    public int getStudentId() {
+        return studentId;
+    }
+
+    public int getCourseId() {
+        return courseId;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o)
+            return true;
+        if (!(o instanceof GradeId other))
+            return false;
+        return studentId == other.studentId && courseId == other.courseId;
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(studentId, courseId);
+    }
+}
@@ -1,11 +1,17 @@
 package se.verran.springbootdemowithtests.entities;
 
 import jakarta.persistence.*;
+import org.hibernate.annotations.SQLRestriction;
+import org.hibernate.annotations.UpdateTimestamp;
 
+import java.time.Instant;
 import java.time.LocalDate;
 import java.time.Period;
 
 @Entity
+// Tombstoned students are invisible to every query until StudentPurger removes them
+@SQLRestriction("deleted = false")
+@Table(indexes = @Index(name = "idx_student_modified_at", columnList = "modified_at"))
 public class Student {
     @Id
     @GeneratedValue(strategy = GenerationType.IDENTITY)
@@ -20,6 +26,18 @@ public class Student {
     private String email;
     @Column(length = 1)
     private Double javaProgrammingGrade;
+    // Bumped by every update, a stale version means someone else updated the student first.
+    // Null only in requests that left it out, which PUT and PATCH reject
+    @Version
+    @Column(nullable = false)
+    private Integer version;
+    // Only set when soft delete is enabled, see StudentService.deleteStudent
+    @Column(nullable = false)
+    private boolean deleted;
+    // Set on every write, lets RosterSnapshot catch up on just the students changed since its snapshot
+    @UpdateTimestamp
+    @Column(name = "modified_at")
+    private Instant modifiedAt;
 
     public Student() {
     }
@@ -79,4 +97,12 @@ public class Student {
     public void setJavaProgrammingGrade(Double javaProgrammingGrade) {
         this.javaProgrammingGrade = javaProgrammingGrade;
     }
+
+    public Integer getVersion() {
+        return version;
+    }
+
+    public void setVersion(Integer version) {
+        this.version = version;
+    }
 }
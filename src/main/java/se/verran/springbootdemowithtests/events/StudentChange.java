@@ -0,0 +1,66 @@
+package se.verran.springbootdemowithtests.events;
+
+import se.verran.springbootdemowithtests.entities.Student;
+
+// One entry of the change stream. RESET means the changes since the client's last sequence are
+// no longer buffered, or were numbered by an instance that has since restarted, so it has to
+// fetch all students again and continue from this id
+public class StudentChange {
+    public static final String RESET = "RESET";
+
+    private final long epoch;
+    private final long sequence;
+    private final String type;
+    private final int studentId;
+    private final Student student;
+    // Only for COURSE_GRADE_SET, null otherwise
+    private final String courseCode;
+    private final Double courseGrade;
+
+    public StudentChange(long epoch, long sequence, String type, int studentId, Student student) {
+        this(epoch, sequence, type, studentId, student, null, null);
+    }
+
+    public StudentChange(long epoch, long sequence, String type, int studentId, Student student, String courseCode, Double courseGrade) {
+        this.epoch = epoch;
+        this.sequence = sequence;
+        this.type = type;
+        this.studentId = studentId;
+        this.student = student;
+        this.courseCode = courseCode;
+        this.courseGrade = courseGrade;
+    }
+
+    // Sequences start over when the application restarts, the epoch tells them apart
+    public String getId() {
+        return epoch + "-" + sequence;
+    }
+
+    public long getEpoch() {
+        return epoch;
+    }
+
+    public long getSequence() {
+        return sequence;
+    }
+
+    public String getType() {
+        return type;
+    }
+
+    public int getStudentId() {
+        return studentId;
+    }
+
+    public Student getStudent() {
+        return student;
+    }
+
+    public String getCourseCode() {
+        return courseCode;
+    }
+
+    public Double getCourseGrade() {
+        return courseGrade;
+    }
+}
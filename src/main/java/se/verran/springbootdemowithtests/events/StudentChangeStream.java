@@ -0,0 +1,166 @@
+package se.verran.springbootdemowithtests.events;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+// Numbers every StudentChangedEvent, keeps the latest ones in a ring buffer for clients resuming
+// after a disconnect and fans them out to subscribers. Each subscriber has its own bounded queue
+// drained on a shared pool, a subscriber that falls too far behind is disconnected and can resume
+// from its last sequence, so a slow consumer never holds up writes or other subscribers.
+// Sequences are kept in memory only, ids sent to clients carry the startup time as epoch so a
+// client resuming with an id from before a restart gets a RESET instead of a wrong replay
+@Component
+public class StudentChangeStream {
+    public interface ChangeSink {
+        void send(StudentChange change) throws IOException;
+
+        void close();
+    }
+
+    private final StudentChange[] buffer;
+    private final int subscriberQueueSize;
+    private final long emitterTimeoutMillis;
+    private final Executor executor;
+    private final long epoch;
+    private final Set<Subscription> subscriptions = ConcurrentHashMap.newKeySet();
+    private long nextSequence = 1;
+
+    @Autowired
+    public StudentChangeStream(@Value("${student.changes.buffer-size:1024}") int bufferSize,
+                               @Value("${student.changes.subscriber-queue-size:256}") int subscriberQueueSize,
+                               @Value("${student.changes.emitter-timeout-ms:1800000}") long emitterTimeoutMillis) {
+        this(bufferSize, subscriberQueueSize, emitterTimeoutMillis, Executors.newFixedThreadPool(4, runnable -> {
+            Thread thread = new Thread(runnable, "student-change-stream");
+            thread.setDaemon(true);
+            return thread;
+        }));
+    }
+
+    public StudentChangeStream(int bufferSize, int subscriberQueueSize, long emitterTimeoutMillis, Executor executor) {
+        this(bufferSize, subscriberQueueSize, emitterTimeoutMillis, executor, System.currentTimeMillis());
+    }
+
+    StudentChangeStream(int bufferSize, int subscriberQueueSize, long emitterTimeoutMillis, Executor executor, long epoch) {
+        this.epoch = epoch;
+        this.buffer = new StudentChange[bufferSize];
+        this.subscriberQueueSize = subscriberQueueSize;
+        this.emitterTimeoutMillis = emitterTimeoutMillis;
+        this.executor = executor;
+    }
+
+    public long getEmitterTimeoutMillis() {
+        return emitterTimeoutMillis;
+    }
+
+    @EventListener
+    public synchronized void onStudentChanged(StudentChangedEvent event) {
+        StudentChange change = new StudentChange(epoch, nextSequence++, event.getType().name(), event.getStudentId(),
+                event.getStudent(), event.getCourseCode(), event.getCourseGrade());
+        buffer[(int) (change.getSequence() % buffer.length)] = change;
+        for (Subscription subscription : subscriptions)
+            subscription.offer(change);
+    }
+
+    // lastEventId is the id of the last change the client got, null means only changes from now on
+    public Subscription subscribe(String lastEventId, ChangeSink sink) {
+        if (lastEventId == null)
+            return subscribe(-1, sink);
+        int separator = lastEventId.indexOf('-');
+        try {
+            if (separator > 0 && Long.parseLong(lastEventId.substring(0, separator)) == epoch) {
+                long lastSeenSequence = Long.parseLong(lastEventId.substring(separator + 1));
+                if (lastSeenSequence >= 0)
+                    return subscribe(lastSeenSequence, sink);
+            }
+        } catch (NumberFormatException e) {
+            // Not an id we handed out, same as one from before a restart
+        }
+        // Past the latest sequence, so the client gets a RESET
+        return subscribe(Long.MAX_VALUE, sink);
+    }
+
+    // lastSeenSequence below 0 means only changes from now on
+    synchronized Subscription subscribe(long lastSeenSequence, ChangeSink sink) {
+        Subscription subscription = new Subscription(sink, buffer.length + subscriberQueueSize);
+        long latestSequence = nextSequence - 1;
+        long oldestBuffered = Math.max(1, nextSequence - buffer.length);
+        if (lastSeenSequence >= 0) {
+            // Either too old for the buffer, or not from this instance
+            if (lastSeenSequence + 1 < oldestBuffered || lastSeenSequence > latestSequence) {
+                subscription.offer(new StudentChange(epoch, latestSequence, StudentChange.RESET, 0, null));
+            } else {
+                for (long sequence = lastSeenSequence + 1; sequence <= latestSequence; sequence++)
+                    subscription.offer(buffer[(int) (sequence % buffer.length)]);
+            }
+        }
+        subscriptions.add(subscription);
+        return subscription;
+    }
+
+    public int subscriberCount() {
+        return subscriptions.size();
+    }
+
+    public class Subscription {
+        private final ChangeSink sink;
+        private final BlockingQueue<StudentChange> queue;
+        private final AtomicBoolean draining = new AtomicBoolean();
+        private volatile boolean closed;
+
+        private Subscription(ChangeSink sink, int queueSize) {
+            this.sink = sink;
+            this.queue = new ArrayBlockingQueue<>(queueSize);
+        }
+
+        private void offer(StudentChange change) {
+            if (closed)
+                return;
+            if (!queue.offer(change)) {
+                close();
+                return;
+            }
+            scheduleDrain();
+        }
+
+        private void scheduleDrain() {
+            if (draining.compareAndSet(false, true))
+                executor.execute(this::drain);
+        }
+
+        private void drain() {
+            try {
+                StudentChange change;
+                while (!closed && (change = queue.poll()) != null)
+                    sink.send(change);
+            } catch (IOException | RuntimeException e) {
+                close();
+                return;
+            } finally {
+                draining.set(false);
+            }
+            // Something may have been offered after the last poll but before draining was reset
+            if (!closed && !queue.isEmpty())
+                scheduleDrain();
+        }
+
+        public void close() {
+            if (closed)
+                return;
+            closed = true;
+            subscriptions.remove(this);
+            queue.clear();
+            sink.close();
+        }
+    }
+}
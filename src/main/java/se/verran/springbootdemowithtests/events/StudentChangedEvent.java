@@ -0,0 +1,54 @@
+package se.verran.springbootdemowithtests.events;
+
+import se.verran.springbootdemowithtests.entities.Student;
+
+// Published by StudentService after every successful write, and by CourseService when a course grade is set
+public class StudentChangedEvent {
+    // COURSE_GRADE_SET leaves the student itself as it was, only what is computed from grades is affected
+    public enum Type { ADDED, UPDATED, GRADE_SET, DELETED, COURSE_GRADE_SET }
+
+    private final Type type;
+    // 0 when a bulk delete removed students we don't know the ids of
+    private final int studentId;
+    // The student after the change, null for deletes and patches
+    private final Student student;
+    // Only for COURSE_GRADE_SET, null otherwise
+    private final String courseCode;
+    private final Double courseGrade;
+
+    public StudentChangedEvent(Type type, int studentId, Student student) {
+        this(type, studentId, student, null, null);
+    }
+
+    public StudentChangedEvent(int studentId, String courseCode, double courseGrade) {
+        this(Type.COURSE_GRADE_SET, studentId, null, courseCode, courseGrade);
+    }
+
+    private StudentChangedEvent(Type type, int studentId, Student student, String courseCode, Double courseGrade) {
+        this.type = type;
+        this.studentId = studentId;
+        this.student = student;
+        this.courseCode = courseCode;
+        this.courseGrade = courseGrade;
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    public int getStudentId() {
+        return studentId;
+    }
+
+    public Student getStudent() {
+        return student;
+    }
+
+    public String getCourseCode() {
+        return courseCode;
+    }
+
+    public Double getCourseGrade() {
+        return courseGrade;
+    }
+}
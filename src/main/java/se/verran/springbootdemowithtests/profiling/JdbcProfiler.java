@@ -0,0 +1,155 @@
+package se.verran.springbootdemowithtests.profiling;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+// Receives every statement run through ProfilingDataSource. Latency and rows go to metrics, slow
+// statements and full table loads are logged right away, and statements are also summed up per
+// HTTP request to catch the same statement being repeated (N+1).
+// Logs are key=value on one line, per statement lines only at debug
+public class JdbcProfiler {
+    private static final Logger log = LoggerFactory.getLogger(JdbcProfiler.class);
+    private static final String NO_ENDPOINT = "none";
+    private static final Pattern FILTER = Pattern.compile("\\b(where|limit|fetch\\s+first|offset)\\b", Pattern.CASE_INSENSITIVE);
+    // The @SQLRestriction on Student adds this to every select, it doesn't make a select any less of a full load
+    private static final String RESTRICTION = "\\(?\\s*(?:\\w+\\.)?deleted\\s*=\\s*(?:false|0)\\s*\\)?";
+    private static final Pattern SOFT_DELETE_RESTRICTION = Pattern.compile(
+            "\\band\\s+" + RESTRICTION + "|" + RESTRICTION + "\\s+and\\b|" + RESTRICTION, Pattern.CASE_INSENSITIVE);
+    private static final Pattern EMPTY_WHERE = Pattern.compile(
+            "\\bwhere\\s*(?=$|\\)|\\b(?:order|group|limit|fetch|offset)\\b)", Pattern.CASE_INSENSITIVE);
+
+    private final MeterRegistry meterRegistry;
+    private final long slowThresholdNanos;
+    private final int repeatedStatementThreshold;
+    private final int fullLoadMinRows;
+    private final ThreadLocal<RequestProfile> currentRequest = new ThreadLocal<>();
+    // Looking meters up in the registry on every statement costs more than this map
+    private final Map<String, Timer> statementTimers = new ConcurrentHashMap<>();
+    private final Map<String, DistributionSummary> rowSummaries = new ConcurrentHashMap<>();
+    private final Map<String, DistributionSummary> requestSummaries = new ConcurrentHashMap<>();
+    private final Map<String, Counter> counters = new ConcurrentHashMap<>();
+
+    public JdbcProfiler(JdbcProfilerProperties properties, MeterRegistry meterRegistry) {
+        this.meterRegistry = meterRegistry;
+        this.slowThresholdNanos = properties.getSlowThreshold().toNanos();
+        this.repeatedStatementThreshold = properties.getRepeatedStatementThreshold();
+        this.fullLoadMinRows = properties.getFullLoadMinRows();
+    }
+
+    // Scan endpoints are expected to load whole tables, anywhere else that is worth a warning
+    public void beginRequest(String endpoint, boolean scanExpected) {
+        currentRequest.set(new RequestProfile(endpoint, scanExpected));
+    }
+
+    public void endRequest() {
+        RequestProfile request = currentRequest.get();
+        if (request == null)
+            return;
+        currentRequest.remove();
+        requestSummaries.computeIfAbsent(request.endpoint, endpoint -> DistributionSummary.builder("jdbc.request.statements")
+                        .description("Statements run per HTTP request")
+                        .tag("endpoint", endpoint)
+                        .register(meterRegistry))
+                .record(request.statements);
+        for (Map.Entry<String, Integer> repeated : request.executionsBySql.entrySet()) {
+            if (repeated.getValue() < repeatedStatementThreshold)
+                continue;
+            counter("jdbc.request.repeated.statements", request.endpoint).increment();
+            log.warn("jdbc repeated statement endpoint={} executions={} sql=\"{}\"", request.endpoint, repeated.getValue(), repeated.getKey());
+        }
+        if (log.isDebugEnabled())
+            log.debug("jdbc request endpoint={} statements={} totalMicros={} rows={}", request.endpoint, request.statements,
+                    TimeUnit.NANOSECONDS.toMicros(request.elapsedNanos), request.rows);
+    }
+
+    public void record(String sql, long elapsedNanos, long rows) {
+        RequestProfile request = currentRequest.get();
+        String endpoint = request == null ? NO_ENDPOINT : request.endpoint;
+        String operation = operationOf(sql);
+
+        statementTimers.computeIfAbsent(operation + " " + endpoint, key -> Timer.builder("jdbc.statements")
+                        .description("Statement execution time")
+                        .tag("operation", operation)
+                        .tag("endpoint", endpoint)
+                        .register(meterRegistry))
+                .record(elapsedNanos, TimeUnit.NANOSECONDS);
+        rowSummaries.computeIfAbsent(operation + " " + endpoint, key -> DistributionSummary.builder("jdbc.statements.rows")
+                        .description("Rows returned or affected per statement")
+                        .tag("operation", operation)
+                        .tag("endpoint", endpoint)
+                        .register(meterRegistry))
+                .record(rows);
+        if (request != null)
+            request.add(sql, elapsedNanos, rows);
+
+        if (log.isDebugEnabled())
+            log.debug("jdbc statement endpoint={} operation={} micros={} rows={} sql=\"{}\"",
+                    endpoint, operation, TimeUnit.NANOSECONDS.toMicros(elapsedNanos), rows, sql);
+        if (elapsedNanos >= slowThresholdNanos) {
+            counter("jdbc.statements.slow", endpoint).increment();
+            log.warn("jdbc slow statement endpoint={} millis={} rows={} sql=\"{}\"",
+                    endpoint, TimeUnit.NANOSECONDS.toMillis(elapsedNanos), rows, sql);
+        }
+        if (operation.equals("select") && rows >= fullLoadMinRows && isUnfiltered(sql)) {
+            counter("jdbc.statements.full.loads", endpoint).increment();
+            if (request != null && !request.scanExpected)
+                log.warn("jdbc full table load endpoint={} rows={} sql=\"{}\"", endpoint, rows, sql);
+        }
+    }
+
+    private Counter counter(String name, String endpoint) {
+        return counters.computeIfAbsent(name + " " + endpoint, key -> meterRegistry.counter(name, "endpoint", endpoint));
+    }
+
+    static boolean isUnfiltered(String sql) {
+        String withoutRestriction = SOFT_DELETE_RESTRICTION.matcher(sql).replaceAll(" ");
+        withoutRestriction = EMPTY_WHERE.matcher(withoutRestriction).replaceAll("");
+        return !FILTER.matcher(withoutRestriction).find();
+    }
+
+    static String operationOf(String sql) {
+        String trimmed = sql.stripLeading();
+        int end = 0;
+        while (end < trimmed.length() && Character.isLetter(trimmed.charAt(end)))
+            end++;
+        String keyword = trimmed.substring(0, end).toLowerCase(Locale.ROOT);
+        return switch (keyword) {
+            case "select", "with" -> "select";
+            case "insert", "update", "delete", "merge" -> keyword;
+            default -> "other";
+        };
+    }
+
+    // Only touched by the thread handling the request
+    private static class RequestProfile {
+        private final String endpoint;
+        private final boolean scanExpected;
+        private final Map<String, Integer> executionsBySql = new HashMap<>();
+        private int statements;
+        private long elapsedNanos;
+        private long rows;
+
+        private RequestProfile(String endpoint, boolean scanExpected) {
+            this.endpoint = endpoint;
+            this.scanExpected = scanExpected;
+        }
+
+        private void add(String sql, long elapsedNanos, long rows) {
+            statements++;
+            this.elapsedNanos += elapsedNanos;
+            this.rows += rows;
+            executionsBySql.merge(sql, 1, Integer::sum);
+        }
+    }
+}
@@ -0,0 +1,49 @@
+package se.verran.springbootdemowithtests.profiling;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.web.servlet.config.annotation.InterceptorRegistry;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+
+import javax.sql.DataSource;
+
+// Wraps whichever DataSource ends up as "dataSource": the plain spring.datasource one, or the
+// replica routing or sharding one when those are enabled
+@Configuration
+@ConditionalOnProperty(name = "jdbc.profiler.enabled", havingValue = "true", matchIfMissing = true)
+@EnableConfigurationProperties(JdbcProfilerProperties.class)
+public class JdbcProfilerConfig implements WebMvcConfigurer {
+    private final ObjectProvider<JdbcProfiler> profiler;
+
+    public JdbcProfilerConfig(ObjectProvider<JdbcProfiler> profiler) {
+        this.profiler = profiler;
+    }
+
+    @Bean
+    public JdbcProfiler jdbcProfiler(JdbcProfilerProperties properties, MeterRegistry meterRegistry) {
+        return new JdbcProfiler(properties, meterRegistry);
+    }
+
+    // Static and with a provider, post processors are created before the beans they handle
+    @Bean
+    public static BeanPostProcessor profilingDataSourcePostProcessor(ObjectProvider<JdbcProfiler> profiler) {
+        return new BeanPostProcessor() {
+            @Override
+            public Object postProcessAfterInitialization(Object bean, String beanName) {
+                if (beanName.equals("dataSource") && bean instanceof DataSource dataSource && !(bean instanceof ProfilingDataSource))
+                    return new ProfilingDataSource(dataSource, profiler.getObject());
+                return bean;
+            }
+        };
+    }
+
+    @Override
+    public void addInterceptors(InterceptorRegistry registry) {
+        registry.addInterceptor(new JdbcProfilerInterceptor(profiler.getObject())).addPathPatterns("/edu/api/**");
+    }
+}
@@ -0,0 +1,40 @@
+package se.verran.springbootdemowithtests.profiling;
+
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.web.method.HandlerMethod;
+import org.springframework.web.servlet.AsyncHandlerInterceptor;
+import org.springframework.web.servlet.HandlerMapping;
+import se.verran.springbootdemowithtests.admission.EndpointCost;
+
+// Groups the statements run while handling a request, tagged with the matched path pattern so
+// metrics don't get one series per student id
+public class JdbcProfilerInterceptor implements AsyncHandlerInterceptor {
+    private final JdbcProfiler profiler;
+
+    public JdbcProfilerInterceptor(JdbcProfiler profiler) {
+        this.profiler = profiler;
+    }
+
+    @Override
+    public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler) {
+        if (!(handler instanceof HandlerMethod handlerMethod))
+            return true;
+        Object pattern = request.getAttribute(HandlerMapping.BEST_MATCHING_PATTERN_ATTRIBUTE);
+        String endpoint = request.getMethod() + " " + (pattern == null ? request.getRequestURI() : pattern);
+        EndpointCost endpointCost = handlerMethod.getMethodAnnotation(EndpointCost.class);
+        profiler.beginRequest(endpoint, endpointCost != null && endpointCost.value() == EndpointCost.Cost.SCAN);
+        return true;
+    }
+
+    @Override
+    public void afterCompletion(HttpServletRequest request, HttpServletResponse response, Object handler, Exception ex) {
+        profiler.endRequest();
+    }
+
+    // Streaming responses leave the request thread here, later statements are not the request's
+    @Override
+    public void afterConcurrentHandlingStarted(HttpServletRequest request, HttpServletResponse response, Object handler) {
+        profiler.endRequest();
+    }
+}
@@ -0,0 +1,47 @@
+package se.verran.springbootdemowithtests.profiling;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.time.Duration;
+
+@ConfigurationProperties("jdbc.profiler")
+public class JdbcProfilerProperties {
+    private boolean enabled = true;
+    private Duration slowThreshold = Duration.ofMillis(200);
+    // The same statement this many times in one request is most likely an N+1
+    private int repeatedStatementThreshold = 10;
+    // Unfiltered selects returning fewer rows, like count(*), are not reported as full table loads
+    private int fullLoadMinRows = 2;
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public Duration getSlowThreshold() {
+        return slowThreshold;
+    }
+
+    public void setSlowThreshold(Duration slowThreshold) {
+        this.slowThreshold = slowThreshold;
+    }
+
+    public int getRepeatedStatementThreshold() {
+        return repeatedStatementThreshold;
+    }
+
+    public void setRepeatedStatementThreshold(int repeatedStatementThreshold) {
+        this.repeatedStatementThreshold = repeatedStatementThreshold;
+    }
+
+    public int getFullLoadMinRows() {
+        return fullLoadMinRows;
+    }
+
+    public void setFullLoadMinRows(int fullLoadMinRows) {
+        this.fullLoadMinRows = fullLoadMinRows;
+    }
+}
@@ -0,0 +1,222 @@
+package se.verran.springbootdemowithtests.profiling;
+
+import org.springframework.jdbc.datasource.DelegatingDataSource;
+
+import javax.sql.DataSource;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.CallableStatement;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+// Hands out connections whose statements report to the JdbcProfiler. A query is recorded once its
+// result set is read to the end or closed, so the row count is known, everything else right away.
+// The time recorded is the execute call, fetching rows afterwards is not included
+public class ProfilingDataSource extends DelegatingDataSource implements AutoCloseable {
+    private final JdbcProfiler profiler;
+
+    public ProfilingDataSource(DataSource targetDataSource, JdbcProfiler profiler) {
+        super(targetDataSource);
+        this.profiler = profiler;
+    }
+
+    @Override
+    public Connection getConnection() throws SQLException {
+        return profiled(super.getConnection());
+    }
+
+    @Override
+    public Connection getConnection(String username, String password) throws SQLException {
+        return profiled(super.getConnection(username, password));
+    }
+
+    // The bean replaces the pool, so the pool is closed on shutdown through here
+    @Override
+    public void close() throws Exception {
+        if (getTargetDataSource() instanceof AutoCloseable closeable)
+            closeable.close();
+    }
+
+    private Connection profiled(Connection connection) {
+        return proxy(Connection.class, new ConnectionHandler(connection));
+    }
+
+    private static <T> T proxy(Class<T> type, InvocationHandler handler) {
+        return type.cast(Proxy.newProxyInstance(ProfilingDataSource.class.getClassLoader(), new Class<?>[]{type}, handler));
+    }
+
+    // Proxies are compared by identity, Hibernate keeps statements and result sets in hash maps
+    private abstract static class DelegatingHandler implements InvocationHandler {
+        private final Object target;
+
+        private DelegatingHandler(Object target) {
+            this.target = target;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            if (method.getName().equals("equals") && method.getParameterCount() == 1)
+                return proxy == args[0];
+            if (method.getName().equals("hashCode") && method.getParameterCount() == 0)
+                return System.identityHashCode(proxy);
+            return handle(method, args);
+        }
+
+        abstract Object handle(Method method, Object[] args) throws Throwable;
+
+        Object delegate(Method method, Object[] args) throws Throwable {
+            try {
+                return method.invoke(target, args);
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            }
+        }
+    }
+
+    private class ConnectionHandler extends DelegatingHandler {
+
+        private ConnectionHandler(Connection connection) {
+            super(connection);
+        }
+
+        @Override
+        Object handle(Method method, Object[] args) throws Throwable {
+            Object result = delegate(method, args);
+            return switch (method.getName()) {
+                case "prepareCall" -> proxy(CallableStatement.class, new StatementHandler((Statement) result, (String) args[0]));
+                case "prepareStatement" -> proxy(PreparedStatement.class, new StatementHandler((Statement) result, (String) args[0]));
+                case "createStatement" -> proxy(Statement.class, new StatementHandler((Statement) result, null));
+                default -> result;
+            };
+        }
+    }
+
+    private class StatementHandler extends DelegatingHandler {
+        private final Statement statement;
+        // Prepared statements know their sql up front, plain statements get it with every execute
+        private String sql;
+        private Execution pendingQuery;
+
+        private StatementHandler(Statement statement, String sql) {
+            super(statement);
+            this.statement = statement;
+            this.sql = sql;
+        }
+
+        @Override
+        Object handle(Method method, Object[] args) throws Throwable {
+            String name = method.getName();
+            if (name.startsWith("execute")) {
+                if (args != null && args.length > 0 && args[0] instanceof String statementSql)
+                    sql = statementSql;
+                else if (name.equals("executeBatch") && sql == null)
+                    sql = "batch";
+                finishPendingQuery();
+                return execute(method, args);
+            }
+            if (name.equals("getResultSet")) {
+                ResultSet resultSet = (ResultSet) delegate(method, args);
+                return resultSet == null || pendingQuery == null ? resultSet : profiled(resultSet);
+            }
+            if (name.equals("close"))
+                finishPendingQuery();
+            return delegate(method, args);
+        }
+
+        private Object execute(Method method, Object[] args) throws Throwable {
+            long started = System.nanoTime();
+            Object result = delegate(method, args);
+            Execution execution = new Execution(sql, System.nanoTime() - started);
+            if (result instanceof ResultSet resultSet) {
+                pendingQuery = execution;
+                return profiled(resultSet);
+            }
+            if (result instanceof Boolean hasResultSet && hasResultSet) {
+                pendingQuery = execution;
+                return result;
+            }
+            execution.rows = affectedRows(result);
+            execution.finish();
+            return result;
+        }
+
+        private long affectedRows(Object result) throws SQLException {
+            if (result instanceof Number count)
+                return Math.max(0, count.longValue());
+            if (result instanceof int[] counts) {
+                long total = 0;
+                for (int count : counts)
+                    total += Math.max(0, count);
+                return total;
+            }
+            if (result instanceof long[] counts) {
+                long total = 0;
+                for (long count : counts)
+                    total += Math.max(0, count);
+                return total;
+            }
+            return Math.max(0, statement.getUpdateCount());
+        }
+
+        private ResultSet profiled(ResultSet resultSet) {
+            return proxy(ResultSet.class, new ResultSetHandler(resultSet, pendingQuery));
+        }
+
+        private void finishPendingQuery() {
+            if (pendingQuery != null) {
+                pendingQuery.finish();
+                pendingQuery = null;
+            }
+        }
+    }
+
+    private static class ResultSetHandler extends DelegatingHandler {
+        private final Execution execution;
+
+        private ResultSetHandler(ResultSet resultSet, Execution execution) {
+            super(resultSet);
+            this.execution = execution;
+        }
+
+        @Override
+        Object handle(Method method, Object[] args) throws Throwable {
+            Object result = delegate(method, args);
+            switch (method.getName()) {
+                case "next" -> {
+                    if ((Boolean) result)
+                        execution.rows++;
+                    else
+                        execution.finish();
+                }
+                case "close" -> execution.finish();
+                default -> {
+                }
+            }
+            return result;
+        }
+    }
+
+    private class Execution {
+        private final String sql;
+        private final long elapsedNanos;
+        private long rows;
+        private boolean finished;
+
+        private Execution(String sql, long elapsedNanos) {
+            this.sql = sql;
+            this.elapsedNanos = elapsedNanos;
+        }
+
+        private void finish() {
+            if (finished)
+                return;
+            finished = true;
+            profiler.record(sql, elapsedNanos, rows);
+        }
+    }
+}
@@ -0,0 +1,111 @@
+package se.verran.springbootdemowithtests.reports;
+
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.concurrent.Future;
+
+public class ReportJob {
+    public enum Status { QUEUED, RUNNING, DONE, FAILED, CANCELLED }
+
+    private final String id;
+    private final ReportType type;
+    private final Instant createdAt = Instant.now();
+    private volatile Status status = Status.QUEUED;
+    private volatile int progress;
+    private volatile String error;
+    private volatile Instant finishedAt;
+    private volatile Path resultFile;
+    private volatile Future<?> future;
+
+    public ReportJob(String id, ReportType type) {
+        this.id = id;
+        this.type = type;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public ReportType getType() {
+        return type;
+    }
+
+    public Instant getCreatedAt() {
+        return createdAt;
+    }
+
+    public Status getStatus() {
+        return status;
+    }
+
+    // Percent of the students written so far
+    public int getProgress() {
+        return progress;
+    }
+
+    public String getError() {
+        return error;
+    }
+
+    public Instant getFinishedAt() {
+        return finishedAt;
+    }
+
+    Path resultFile() {
+        return resultFile;
+    }
+
+    Future<?> future() {
+        return future;
+    }
+
+    void setFuture(Future<?> future) {
+        this.future = future;
+    }
+
+    void setProgress(int progress) {
+        this.progress = progress;
+    }
+
+    synchronized boolean start() {
+        if (status != Status.QUEUED)
+            return false;
+        status = Status.RUNNING;
+        return true;
+    }
+
+    synchronized void finish(Path resultFile) {
+        if (status != Status.RUNNING)
+            return;
+        this.resultFile = resultFile;
+        this.progress = 100;
+        finishWith(Status.DONE);
+    }
+
+    synchronized void fail(String error) {
+        if (status != Status.RUNNING)
+            return;
+        this.error = error;
+        finishWith(Status.FAILED);
+    }
+
+    synchronized boolean cancel() {
+        if (status != Status.QUEUED && status != Status.RUNNING)
+            return false;
+        finishWith(Status.CANCELLED);
+        return true;
+    }
+
+    boolean isCancelled() {
+        return status == Status.CANCELLED;
+    }
+
+    boolean isFinished() {
+        return finishedAt != null;
+    }
+
+    private void finishWith(Status finalStatus) {
+        status = finalStatus;
+        finishedAt = Instant.now();
+    }
+}
@@ -0,0 +1,10 @@
+package se.verran.springbootdemowithtests.reports;
+
+public enum ReportType {
+    // Every student ranked by grade
+    RANKING,
+    // Students dealt into grade balanced groups of a given size
+    GROUPS,
+    // Number of students per half grade
+    GRADE_DISTRIBUTION
+}
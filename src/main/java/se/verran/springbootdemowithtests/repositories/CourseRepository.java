@@ -0,0 +1,15 @@
+package se.verran.springbootdemowithtests.repositories;
+
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.stereotype.Repository;
+import se.verran.springbootdemowithtests.entities.Course;
+
+import java.util.Optional;
+
+@Repository
+public interface CourseRepository extends JpaRepository<Course, Integer> {
+
+    Optional<Course> findByCode(String code);
+
+    boolean existsByCode(String code);
+}
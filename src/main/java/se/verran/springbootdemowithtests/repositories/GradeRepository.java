@@ -0,0 +1,48 @@
+package se.verran.springbootdemowithtests.repositories;
+
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+import se.verran.springbootdemowithtests.entities.Grade;
+import se.verran.springbootdemowithtests.entities.GradeId;
+
+import java.util.Collection;
+import java.util.List;
+
+// The aggregates join student themselves, so grades of deleted students are left out without loading
+// any students. Grades are stored on the shard of their student, so every shard can aggregate its own
+// grades and only the partial results are merged, see CourseService
+@Repository
+public interface GradeRepository extends JpaRepository<Grade, GradeId> {
+
+    // One query for the grades of a whole page of students instead of one per student
+    List<Grade> findByStudentIdIn(Collection<Integer> studentIds);
+
+    // Every graded student counts as a student of the course
+    @Query("select new se.verran.springbootdemowithtests.repositories.GradeSummary(count(g), count(g), sum(g.value)) "
+            + "from Grade g join Student s on s.id = g.studentId where g.courseId = :courseId")
+    GradeSummary summarizeCourse(int courseId);
+
+    @Query("select g from Grade g join Student s on s.id = g.studentId where g.courseId = :courseId order by g.value desc, g.studentId")
+    List<Grade> findTopGradesInCourse(int courseId, Pageable pageable);
+
+    // Whole grades, 4 also holds 5.0 so the top bucket isn't a single value
+    @Query(value = "select least(floor(g.grade_value), 4) as bucket, count(*) as students from grade g join student s on s.id = g.student_id "
+            + "where g.course_id = :courseId and s.deleted = false group by least(floor(g.grade_value), 4)", nativeQuery = true)
+    List<GradeBucket> gradeHistogramInCourse(int courseId);
+
+    // Grades don't outlive their students, tombstoned or not
+    @Transactional
+    @Modifying
+    @Query(value = "delete from grade where student_id in (:studentIds)", nativeQuery = true)
+    int deleteGradesOfStudents(List<Integer> studentIds);
+
+    interface GradeBucket {
+        Number getBucket();
+
+        Number getStudents();
+    }
+}
@@ -0,0 +1,39 @@
+package se.verran.springbootdemowithtests.repositories;
+
+import java.util.OptionalDouble;
+
+// Student count and grade sum of one shard. Partial summaries add up, so every shard can
+// summarize its own students and only the summaries are merged
+public class GradeSummary {
+    private final long students;
+    private final long graded;
+    private final double gradeSum;
+
+    // Sum is null when the shard has no graded students
+    public GradeSummary(Long students, Long graded, Double gradeSum) {
+        this.students = students;
+        this.graded = graded;
+        this.gradeSum = gradeSum == null ? 0.0 : gradeSum;
+    }
+
+    public GradeSummary plus(GradeSummary other) {
+        return new GradeSummary(students + other.students, graded + other.graded, gradeSum + other.gradeSum);
+    }
+
+    public long getStudents() {
+        return students;
+    }
+
+    public long getGraded() {
+        return graded;
+    }
+
+    public double getGradeSum() {
+        return gradeSum;
+    }
+
+    // Over the graded students only
+    public OptionalDouble averageGrade() {
+        return graded == 0 ? OptionalDouble.empty() : OptionalDouble.of(gradeSum / graded);
+    }
+}
@@ -1,11 +1,60 @@
 package se.verran.springbootdemowithtests.repositories;
 
+import org.springframework.data.domain.Limit;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
 import se.verran.springbootdemowithtests.entities.Student;
+
+import java.time.Instant;
+import java.util.List;
 @Repository
-public interface StudentRepository extends JpaRepository<Student, Integer> {
+public interface StudentRepository extends JpaRepository<Student, Integer>, StudentRepositoryCustom {
 
     // A "self-made" method, either query method or a native query, has to be tested
     boolean existsStudentByEmail(String email);
+
+    // Whether another student already has the email
+    boolean existsStudentByEmailAndIdNot(String email, int id);
+
+    // Native, since tombstoned students are filtered out of every JPQL query
+    @Query(value = "select id from student where deleted = true limit :batchSize", nativeQuery = true)
+    List<Integer> findTombstonedStudentIds(int batchSize);
+
+    @Transactional
+    @Modifying
+    @Query(value = "delete from student where deleted = true and id in (:ids)", nativeQuery = true)
+    int purgeTombstonedStudents(List<Integer> ids);
+
+    List<Student> findByModifiedAtAfter(Instant since);
+
+    @Query(value = "select id from student where deleted = true and modified_at > :since", nativeQuery = true)
+    List<Integer> findTombstonedStudentIdsModifiedAfter(Instant since);
+
+    @Query("select s.id from Student s")
+    List<Integer> findAllStudentIds();
+
+    @Query("select new se.verran.springbootdemowithtests.repositories.GradeSummary(count(s), count(s.javaProgrammingGrade), sum(s.javaProgrammingGrade)) from Student s")
+    GradeSummary summarizeGrades();
+
+    List<Student> findByJavaProgrammingGradeNotNullOrderByJavaProgrammingGradeDesc(Limit limit);
+
+    // Keyset paging, the next page starts after the last id of the previous one
+    List<Student> findByIdGreaterThanOrderById(int id, Limit limit);
+
+    // Keyset paging best grade first, students with the same grade by id. Ungraded students are never less than a grade
+    @Query("select s from Student s where s.javaProgrammingGrade < :grade or (s.javaProgrammingGrade = :grade and s.id > :id) "
+            + "order by s.javaProgrammingGrade desc, s.id")
+    List<Student> findGradedAfter(double grade, int id, Pageable pageable);
+
+    List<Student> findByJavaProgrammingGradeIsNullAndIdGreaterThanOrderById(int id, Limit limit);
+
+    // Half grades 0.0 - 0.5 as 0 up to 4.5 - 5.0 as 9, with 5.0 in the last one, and 10 for no grade
+    @Query(value = "select case when java_programming_grade is null then 10 else least(floor(java_programming_grade * 2), 9) end as bucket, "
+            + "count(*) as students from student where deleted = false "
+            + "group by case when java_programming_grade is null then 10 else least(floor(java_programming_grade * 2), 9) end", nativeQuery = true)
+    List<GradeRepository.GradeBucket> gradeDistribution();
 }
@@ -0,0 +1,29 @@
+package se.verran.springbootdemowithtests.repositories;
+
+import org.springframework.data.jpa.domain.Specification;
+import se.verran.springbootdemowithtests.entities.Student;
+
+import java.util.List;
+
+public interface StudentRepositoryCustom {
+
+    // Updates only the non-null fields of changes in one statement, guarded by the expected version.
+    // Returns the number of affected rows, 0 means the student is missing or the version is stale
+    int patchStudent(int id, int expectedVersion, Student changes);
+
+    // Overwrites every field with those of student in one statement, guarded by the expected version.
+    // Returns the number of affected rows like patchStudent
+    int updateStudent(int id, int expectedVersion, Student student);
+
+    // Sets the grade and bumps the version in one statement, so a PUT or PATCH made on the old version conflicts.
+    // Returns the number of affected rows, 0 means the student is missing
+    int setGrade(int id, double grade);
+
+    // Deletes, or tombstones when soft, every student matching the specification in one statement.
+    // Returns the number of affected rows
+    int deleteStudents(Specification<Student> specification, boolean soft);
+
+    // Deletes, or tombstones when soft, the students among ids in one transaction.
+    // Returns the ids that were actually deleted, ids without a student are left out
+    List<Integer> deleteStudentsById(List<Integer> ids, boolean soft);
+}
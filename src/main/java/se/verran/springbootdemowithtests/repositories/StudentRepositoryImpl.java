@@ -0,0 +1,151 @@
+package se.verran.springbootdemowithtests.repositories;
+
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.LockModeType;
+import jakarta.persistence.PersistenceContext;
+import jakarta.persistence.criteria.CriteriaBuilder;
+import jakarta.persistence.criteria.CriteriaDelete;
+import jakarta.persistence.criteria.CriteriaUpdate;
+import jakarta.persistence.criteria.Root;
+import jakarta.persistence.criteria.Subquery;
+import org.springframework.data.jpa.domain.Specification;
+import org.springframework.transaction.annotation.Transactional;
+import se.verran.springbootdemowithtests.entities.Grade;
+import se.verran.springbootdemowithtests.entities.Student;
+
+import java.time.Instant;
+import java.util.List;
+
+// Picked up by Spring Data as the implementation of StudentRepositoryCustom
+public class StudentRepositoryImpl implements StudentRepositoryCustom {
+
+    @PersistenceContext
+    private EntityManager entityManager;
+
+    @Override
+    @Transactional
+    public int patchStudent(int id, int expectedVersion, Student changes) {
+        CriteriaBuilder builder = entityManager.getCriteriaBuilder();
+        CriteriaUpdate<Student> update = builder.createCriteriaUpdate(Student.class);
+        Root<Student> root = update.from(Student.class);
+
+        if (changes.getFirstName() != null)
+            update.set(root.<String>get("firstName"), changes.getFirstName());
+        if (changes.getLastName() != null)
+            update.set(root.<String>get("lastName"), changes.getLastName());
+        if (changes.getBirthDate() != null)
+            update.set(root.get("birthDate"), changes.getBirthDate());
+        if (changes.getEmail() != null)
+            update.set(root.<String>get("email"), changes.getEmail());
+        update.set(root.<Integer>get("version"), builder.sum(root.<Integer>get("version"), 1));
+        // Bulk updates skip @UpdateTimestamp
+        update.set(root.<Instant>get("modifiedAt"), Instant.now());
+        update.where(
+                builder.equal(root.get("id"), id),
+                builder.equal(root.get("version"), expectedVersion),
+                builder.isFalse(root.get("deleted")));
+
+        // Bulk updates bypass the persistence context, so don't let it serve stale students afterwards
+        entityManager.flush();
+        int affectedRows = entityManager.createQuery(update).executeUpdate();
+        entityManager.clear();
+        return affectedRows;
+    }
+
+    @Override
+    @Transactional
+    public int updateStudent(int id, int expectedVersion, Student student) {
+        CriteriaBuilder builder = entityManager.getCriteriaBuilder();
+        CriteriaUpdate<Student> update = builder.createCriteriaUpdate(Student.class);
+        Root<Student> root = update.from(Student.class);
+
+        update.set(root.<String>get("firstName"), student.getFirstName());
+        update.set(root.<String>get("lastName"), student.getLastName());
+        update.set(root.get("birthDate"), student.getBirthDate());
+        update.set(root.<String>get("email"), student.getEmail());
+        if (student.getJavaProgrammingGrade() == null)
+            update.set(root.<Double>get("javaProgrammingGrade"), builder.nullLiteral(Double.class));
+        else
+            update.set(root.<Double>get("javaProgrammingGrade"), student.getJavaProgrammingGrade());
+        update.set(root.<Integer>get("version"), builder.sum(root.<Integer>get("version"), 1));
+        update.set(root.<Instant>get("modifiedAt"), Instant.now());
+        update.where(
+                builder.equal(root.get("id"), id),
+                builder.equal(root.get("version"), expectedVersion),
+                builder.isFalse(root.get("deleted")));
+
+        entityManager.flush();
+        int affectedRows = entityManager.createQuery(update).executeUpdate();
+        entityManager.clear();
+        return affectedRows;
+    }
+
+    @Override
+    @Transactional
+    public int setGrade(int id, double grade) {
+        CriteriaBuilder builder = entityManager.getCriteriaBuilder();
+        CriteriaUpdate<Student> update = builder.createCriteriaUpdate(Student.class);
+        Root<Student> root = update.from(Student.class);
+
+        update.set(root.<Double>get("javaProgrammingGrade"), grade);
+        update.set(root.<Integer>get("version"), builder.sum(root.<Integer>get("version"), 1));
+        update.set(root.<Instant>get("modifiedAt"), Instant.now());
+        update.where(
+                builder.equal(root.get("id"), id),
+                builder.isFalse(root.get("deleted")));
+
+        entityManager.flush();
+        int affectedRows = entityManager.createQuery(update).executeUpdate();
+        entityManager.clear();
+        return affectedRows;
+    }
+
+    @Override
+    @Transactional
+    public int deleteStudents(Specification<Student> specification, boolean soft) {
+        CriteriaBuilder builder = entityManager.getCriteriaBuilder();
+        int affectedRows;
+        entityManager.flush();
+        if (soft) {
+            CriteriaUpdate<Student> update = builder.createCriteriaUpdate(Student.class);
+            Root<Student> root = update.from(Student.class);
+            update.set(root.<Boolean>get("deleted"), true);
+            update.set(root.<Instant>get("modifiedAt"), Instant.now());
+            update.where(
+                    specification.toPredicate(root, null, builder),
+                    builder.isFalse(root.get("deleted")));
+            affectedRows = entityManager.createQuery(update).executeUpdate();
+        } else {
+            // Their grades go in the same transaction, tombstoned students lose theirs when purged
+            CriteriaDelete<Grade> gradeDelete = builder.createCriteriaDelete(Grade.class);
+            Root<Grade> grade = gradeDelete.from(Grade.class);
+            Subquery<Integer> matchingIds = gradeDelete.subquery(Integer.class);
+            Root<Student> student = matchingIds.from(Student.class);
+            matchingIds.select(student.<Integer>get("id")).where(specification.toPredicate(student, null, builder));
+            gradeDelete.where(grade.get("studentId").in(matchingIds));
+            entityManager.createQuery(gradeDelete).executeUpdate();
+
+            CriteriaDelete<Student> delete = builder.createCriteriaDelete(Student.class);
+            Root<Student> root = delete.from(Student.class);
+            delete.where(specification.toPredicate(root, null, builder));
+            affectedRows = entityManager.createQuery(delete).executeUpdate();
+        }
+        entityManager.clear();
+        return affectedRows;
+    }
+
+    @Override
+    @Transactional
+    public List<Integer> deleteStudentsById(List<Integer> ids, boolean soft) {
+        // Locked until the delete commits, so a concurrent delete can't make the returned ids wrong
+        List<Integer> existingIds = entityManager.createQuery("select s from Student s where s.id in :ids", Student.class)
+                .setParameter("ids", ids)
+                .setLockMode(LockModeType.PESSIMISTIC_WRITE)
+                .getResultList().stream()
+                .map(Student::getId)
+                .toList();
+        if (!existingIds.isEmpty())
+            deleteStudents((root, query, builder) -> root.get("id").in(existingIds), soft);
+        return existingIds;
+    }
+}
@@ -0,0 +1,63 @@
+package se.verran.springbootdemowithtests.roster;
+
+import se.verran.springbootdemowithtests.entities.Student;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+
+// The part of a student kept in the roster snapshot, a fixed size record on disk
+public class RosterEntry {
+    static final int BYTES = Integer.BYTES + Double.BYTES + Integer.BYTES + Long.BYTES;
+
+    private final int id;
+    // NaN when the student has no grade
+    private final double grade;
+    private final int birthEpochDay;
+    private final long emailHash;
+
+    public RosterEntry(int id, double grade, int birthEpochDay, long emailHash) {
+        this.id = id;
+        this.grade = grade;
+        this.birthEpochDay = birthEpochDay;
+        this.emailHash = emailHash;
+    }
+
+    public static RosterEntry of(Student student) {
+        return new RosterEntry(student.getId(),
+                student.getJavaProgrammingGrade() == null ? Double.NaN : student.getJavaProgrammingGrade(),
+                student.getBirthDate() == null ? 0 : (int) student.getBirthDate().toEpochDay(),
+                emailHash(student.getEmail()));
+    }
+
+    // 64 bit FNV-1a, good enough to tell emails apart without keeping them
+    public static long emailHash(String email) {
+        if (email == null)
+            return 0;
+        long hash = 0xcbf29ce484222325L;
+        for (byte b : email.toLowerCase(Locale.ROOT).getBytes(StandardCharsets.UTF_8)) {
+            hash ^= b & 0xff;
+            hash *= 0x100000001b3L;
+        }
+        return hash;
+    }
+
+    public int getId() {
+        return id;
+    }
+
+    public double getGrade() {
+        return grade;
+    }
+
+    public boolean hasGrade() {
+        return !Double.isNaN(grade);
+    }
+
+    public int getBirthEpochDay() {
+        return birthEpochDay;
+    }
+
+    public long getEmailHash() {
+        return emailHash;
+    }
+}
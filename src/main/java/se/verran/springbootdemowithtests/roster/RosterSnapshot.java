@@ -0,0 +1,413 @@
+package se.verran.springbootdemowithtests.roster;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import se.verran.springbootdemowithtests.entities.Student;
+import se.verran.springbootdemowithtests.events.StudentChangedEvent;
+import se.verran.springbootdemowithtests.services.StudentService;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.OptionalDouble;
+import java.util.Set;
+
+// A compact in-memory roster (ids, grades, birth dates, email hashes) with running count and grade
+// aggregates. It is written to a local file every interval, and on boot that file is memory mapped
+// and only students changed since its watermark are read from the database. Hard deletes leave nothing to
+// find by timestamp, the ones made through this instance arrive as events and the ids are only compared in
+// full after a bulk delete or when the roster counts more students than the database.
+// The mapped file is the base, changes since it was written live in an overlay until the next write.
+// Everything is read through StudentService, so with sharding the roster covers every shard
+@Component
+@Lazy(false)
+public class RosterSnapshot {
+    private static final long MAGIC = 0x524F53544552_0001L;
+    private static final int HEADER_BYTES = Long.BYTES + Long.BYTES + Integer.BYTES;
+    private static final int LOAD_PAGE_SIZE = 5000;
+
+    private final StudentService studentService;
+    private final Path file;
+    private final boolean enabled;
+    // Writes by other instances may carry slightly older timestamps, catch up a bit further back
+    private final Duration clockMargin;
+
+    private ByteBuffer base = ByteBuffer.allocate(0);
+    private int baseCount;
+    private final Map<Integer, RosterEntry> changed = new HashMap<>();
+    private final Set<Integer> removed = new HashSet<>();
+    private long count;
+    private long gradedCount;
+    private double gradeSum;
+    private Instant watermark = Instant.EPOCH;
+    // Changes made while a snapshot is being written, null otherwise. A null entry value is a removal
+    private List<Map.Entry<Integer, RosterEntry>> journal;
+    // Students put while ids are being compared, null otherwise. Not in the ids read means too new, not deleted
+    private Set<Integer> putWhileReconciling;
+    // A bulk delete doesn't tell which students went away, the next catch up compares the ids
+    private boolean reconcileRequested;
+    private volatile boolean ready;
+
+    @Autowired
+    public RosterSnapshot(StudentService studentService,
+                          @Value("${roster.snapshot.file:${java.io.tmpdir}/student-roster.bin}") Path file,
+                          @Value("${roster.snapshot.enabled:false}") boolean enabled,
+                          @Value("${roster.snapshot.clock-margin:PT1M}") Duration clockMargin) {
+        this.studentService = studentService;
+        this.file = file;
+        this.enabled = enabled;
+        this.clockMargin = clockMargin;
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void warmUp() throws IOException {
+        if (!enabled)
+            return;
+        if (Files.exists(file) && map(file)) {
+            catchUp();
+        } else {
+            Instant started = Instant.now();
+            studentService.forEachStudentPage(LOAD_PAGE_SIZE, students -> {
+                synchronized (this) {
+                    students.forEach(student -> put(RosterEntry.of(student)));
+                }
+            });
+            synchronized (this) {
+                watermark = started.minus(clockMargin);
+            }
+        }
+        writeSnapshot();
+        ready = true;
+    }
+
+    @Scheduled(fixedDelayString = "${roster.snapshot.interval-ms:300000}")
+    public void refresh() throws IOException {
+        if (!ready)
+            return;
+        catchUp();
+        writeSnapshot();
+    }
+
+    @EventListener
+    public void onStudentChanged(StudentChangedEvent event) {
+        if (!enabled)
+            return;
+        switch (event.getType()) {
+            case ADDED, UPDATED, GRADE_SET -> {
+                Student student = event.getStudent() != null ? event.getStudent() : studentService.findStudentById(event.getStudentId()).orElse(null);
+                synchronized (this) {
+                    if (student == null)
+                        remove(event.getStudentId());
+                    else
+                        put(RosterEntry.of(student));
+                }
+            }
+            case DELETED -> {
+                synchronized (this) {
+                    if (event.getStudentId() == 0)
+                        reconcileRequested = true;
+                    else
+                        remove(event.getStudentId());
+                }
+            }
+            case COURSE_GRADE_SET -> {
+                // Course grades aren't part of the roster
+            }
+        }
+    }
+
+    public boolean isReady() {
+        return ready;
+    }
+
+    public synchronized long count() {
+        return count;
+    }
+
+    // Over the graded students only, like the database does
+    public synchronized OptionalDouble averageGrade() {
+        if (gradedCount == 0)
+            return OptionalDouble.empty();
+        return OptionalDouble.of(gradeSum / gradedCount);
+    }
+
+    public synchronized RosterEntry findById(int id) {
+        return lookup(id);
+    }
+
+    // The database is read without holding the lock, so statistics keep being answered meanwhile
+    void catchUp() {
+        Instant since;
+        synchronized (this) {
+            since = watermark;
+        }
+        Instant started = Instant.now();
+        List<Student> changedStudents = studentService.getStudentsModifiedAfter(since);
+        List<Integer> tombstonedIds = studentService.getTombstonedStudentIdsModifiedAfter(since);
+        boolean reconcile;
+        synchronized (this) {
+            changedStudents.forEach(student -> put(RosterEntry.of(student)));
+            tombstonedIds.forEach(this::remove);
+            reconcile = reconcileRequested;
+            reconcileRequested = false;
+        }
+        // Inserts and updates are in the delta by now, so more students here than in the database means
+        // hard deletes made through another instance. One count per shard, no rows are read
+        if (reconcile || count() > studentService.countStudents()) {
+            try {
+                reconcileIds();
+            } catch (RuntimeException e) {
+                synchronized (this) {
+                    reconcileRequested = true;
+                }
+                throw e;
+            }
+        }
+        synchronized (this) {
+            watermark = started.minus(clockMargin);
+        }
+    }
+
+    private void reconcileIds() {
+        synchronized (this) {
+            putWhileReconciling = new HashSet<>();
+        }
+        List<Integer> missingIds = new ArrayList<>();
+        try {
+            int[] databaseIds = studentService.getAllStudentIds().stream().mapToInt(Integer::intValue).sorted().toArray();
+            synchronized (this) {
+                int[] rosterIds = sortedIds();
+                int d = 0;
+                int r = 0;
+                while (d < databaseIds.length || r < rosterIds.length) {
+                    if (r == rosterIds.length || (d < databaseIds.length && databaseIds[d] < rosterIds[r])) {
+                        missingIds.add(databaseIds[d++]);
+                    } else if (d == databaseIds.length || rosterIds[r] < databaseIds[d]) {
+                        if (!putWhileReconciling.contains(rosterIds[r]))
+                            remove(rosterIds[r]);
+                        r++;
+                    } else {
+                        d++;
+                        r++;
+                    }
+                }
+            }
+        } finally {
+            synchronized (this) {
+                putWhileReconciling = null;
+            }
+        }
+        // Never in the roster, e.g. rows from before modified_at existed or seeded past JPA
+        if (missingIds.isEmpty())
+            return;
+        List<Student> missingStudents = studentService.getStudentsByIds(missingIds);
+        synchronized (this) {
+            missingStudents.forEach(student -> put(RosterEntry.of(student)));
+        }
+    }
+
+    // The file is written without holding the lock, changes made meanwhile are journaled and
+    // replayed on top of the newly mapped file
+    void writeSnapshot() throws IOException {
+        List<RosterEntry> entries;
+        Instant snapshotWatermark;
+        synchronized (this) {
+            entries = entries();
+            snapshotWatermark = watermark;
+            journal = new ArrayList<>();
+        }
+        try {
+            writeFile(entries, snapshotWatermark);
+        } catch (IOException e) {
+            synchronized (this) {
+                journal = null;
+            }
+            throw e;
+        }
+        synchronized (this) {
+            List<Map.Entry<Integer, RosterEntry>> journaled = journal;
+            journal = null;
+            Instant latestWatermark = watermark;
+            map(file);
+            watermark = latestWatermark;
+            for (Map.Entry<Integer, RosterEntry> change : journaled) {
+                if (change.getValue() == null)
+                    remove(change.getKey());
+                else
+                    put(change.getValue());
+            }
+        }
+    }
+
+    private void writeFile(List<RosterEntry> entries, Instant snapshotWatermark) throws IOException {
+        entries.sort(Comparator.comparingInt(RosterEntry::getId));
+        Files.createDirectories(file.toAbsolutePath().getParent());
+        Path partFile = file.resolveSibling(file.getFileName() + ".part");
+        try (FileChannel channel = FileChannel.open(partFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+            buffer.putLong(MAGIC).putLong(snapshotWatermark.toEpochMilli()).putInt(entries.size());
+            for (RosterEntry entry : entries) {
+                if (buffer.remaining() < RosterEntry.BYTES) {
+                    buffer.flip();
+                    while (buffer.hasRemaining())
+                        channel.write(buffer);
+                    buffer.clear();
+                }
+                buffer.putInt(entry.getId()).putDouble(entry.getGrade()).putInt(entry.getBirthEpochDay()).putLong(entry.getEmailHash());
+            }
+            buffer.flip();
+            while (buffer.hasRemaining())
+                channel.write(buffer);
+            channel.force(true);
+        }
+        Files.move(partFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    // Maps the file and makes it the new base, false when it isn't a complete snapshot
+    synchronized boolean map(Path snapshotFile) throws IOException {
+        ByteBuffer mapped;
+        try (FileChannel channel = FileChannel.open(snapshotFile, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size < HEADER_BYTES)
+                return false;
+            mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+        }
+        if (mapped.getLong(0) != MAGIC)
+            return false;
+        int mappedCount = mapped.getInt(Long.BYTES + Long.BYTES);
+        if (mapped.capacity() != HEADER_BYTES + (long) mappedCount * RosterEntry.BYTES)
+            return false;
+        base = mapped;
+        baseCount = mappedCount;
+        watermark = Instant.ofEpochMilli(mapped.getLong(Long.BYTES));
+        changed.clear();
+        removed.clear();
+        count = 0;
+        gradedCount = 0;
+        gradeSum = 0;
+        for (int i = 0; i < baseCount; i++)
+            add(baseEntry(i));
+        return true;
+    }
+
+    private void put(RosterEntry entry) {
+        RosterEntry previous = lookup(entry.getId());
+        if (previous != null)
+            subtract(previous);
+        add(entry);
+        changed.put(entry.getId(), entry);
+        removed.remove(entry.getId());
+        if (putWhileReconciling != null)
+            putWhileReconciling.add(entry.getId());
+        if (journal != null)
+            journal.add(new AbstractMap.SimpleEntry<>(entry.getId(), entry));
+    }
+
+    private void remove(int id) {
+        if (journal != null)
+            journal.add(new AbstractMap.SimpleEntry<>(id, null));
+        RosterEntry previous = lookup(id);
+        if (previous == null)
+            return;
+        subtract(previous);
+        changed.remove(id);
+        if (baseIndexOf(id) >= 0)
+            removed.add(id);
+    }
+
+    private void add(RosterEntry entry) {
+        count++;
+        if (entry.hasGrade()) {
+            gradedCount++;
+            gradeSum += entry.getGrade();
+        }
+    }
+
+    private void subtract(RosterEntry entry) {
+        count--;
+        if (entry.hasGrade()) {
+            gradedCount--;
+            gradeSum -= entry.getGrade();
+        }
+    }
+
+    private RosterEntry lookup(int id) {
+        if (removed.contains(id))
+            return null;
+        RosterEntry entry = changed.get(id);
+        if (entry != null)
+            return entry;
+        int index = baseIndexOf(id);
+        return index < 0 ? null : baseEntry(index);
+    }
+
+    private List<RosterEntry> entries() {
+        List<RosterEntry> entries = new ArrayList<>(changed.values());
+        for (int i = 0; i < baseCount; i++) {
+            int id = baseId(i);
+            if (!removed.contains(id) && !changed.containsKey(id))
+                entries.add(baseEntry(i));
+        }
+        return entries;
+    }
+
+    private int[] sortedIds() {
+        int[] ids = new int[(int) count];
+        int next = 0;
+        for (int id : changed.keySet())
+            ids[next++] = id;
+        for (int i = 0; i < baseCount; i++) {
+            int id = baseId(i);
+            if (!removed.contains(id) && !changed.containsKey(id))
+                ids[next++] = id;
+        }
+        Arrays.sort(ids);
+        return ids;
+    }
+
+    // Records are sorted by id
+    private int baseIndexOf(int id) {
+        int low = 0;
+        int high = baseCount - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            int middleId = baseId(middle);
+            if (middleId < id)
+                low = middle + 1;
+            else if (middleId > id)
+                high = middle - 1;
+            else
+                return middle;
+        }
+        return -1;
+    }
+
+    private int baseId(int index) {
+        return base.getInt(HEADER_BYTES + index * RosterEntry.BYTES);
+    }
+
+    private RosterEntry baseEntry(int index) {
+        int offset = HEADER_BYTES + index * RosterEntry.BYTES;
+        return new RosterEntry(base.getInt(offset), base.getDouble(offset + Integer.BYTES),
+                base.getInt(offset + Integer.BYTES + Double.BYTES), base.getLong(offset + Integer.BYTES + Double.BYTES + Integer.BYTES));
+    }
+}
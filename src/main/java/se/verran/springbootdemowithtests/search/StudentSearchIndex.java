@@ -0,0 +1,408 @@
+package se.verran.springbootdemowithtests.search;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+import org.springframework.web.server.ResponseStatusException;
+import se.verran.springbootdemowithtests.entities.Student;
+import se.verran.springbootdemowithtests.events.StudentChangedEvent;
+import se.verran.springbootdemowithtests.services.StudentService;
+
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Objects;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+// In memory index over first name, last name and email, kept in sync through StudentChangedEvent.
+// Names repeat a lot, so the index is built over distinct tokens: a sorted token map answers prefixes
+// and a trigram to token map answers substrings and typos, only then are tokens mapped to students
+@Component
+public class StudentSearchIndex {
+    private static final int PREFIX_SCORE = 3;
+    private static final int SUBSTRING_SCORE = 2;
+    private static final int FUZZY_SCORE = 1;
+    // A one or two letter term can be the prefix of a large part of all tokens, only this many are scored
+    private static final int MAX_PREFIX_TOKENS = 1000;
+    // A search is a point lookup, no single term may score more students than this
+    private static final int MAX_SCORED_STUDENTS = 10_000;
+    // Tokens held by more than half of a large roster tell students apart no better than no term at all
+    private static final int COMMON_TOKEN_MIN_STUDENTS = 1000;
+    // Name particles, held by many students and never what someone searches for
+    private static final int REBUILD_PAGE_SIZE = 5000;
+    private static final Set<String> STOPWORDS = Set.of("af", "av", "da", "de", "del", "den", "der", "di", "du", "la", "le", "van", "von");
+    // Best first, the id keeps the order stable between pages
+    private static final Comparator<Map.Entry<Integer, Integer>> BEST_FIRST =
+            Map.Entry.<Integer, Integer>comparingByValue(Comparator.reverseOrder()).thenComparing(Map.Entry.comparingByKey());
+
+    private final StudentService studentService;
+    // Off, the index is built by the first search instead, so restarts don't read the whole roster
+    private final boolean buildOnStartup;
+    private final Object rebuildLock = new Object();
+    // Replaced as a whole by rebuild, so searches never see a half built index
+    private volatile Index index = new Index();
+    // Changes made while a new index is being built, null otherwise. A null value is a removal
+    private List<Map.Entry<Integer, Student>> journal;
+    private volatile boolean built;
+
+    @Autowired
+    public StudentSearchIndex(StudentService studentService,
+                              @Value("${student.search.build-on-startup:true}") boolean buildOnStartup) {
+        this.studentService = studentService;
+        this.buildOnStartup = buildOnStartup;
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void buildOnStartup() {
+        if (buildOnStartup)
+            rebuild();
+    }
+
+    // The new index is built aside while searches keep using the old one
+    public void rebuild() {
+        synchronized (rebuildLock) {
+            synchronized (this) {
+                journal = new ArrayList<>();
+            }
+            Index rebuilt = new Index();
+            try {
+                studentService.forEachStudentPage(REBUILD_PAGE_SIZE, page -> page.forEach(rebuilt::put));
+            } catch (RuntimeException e) {
+                synchronized (this) {
+                    journal = null;
+                }
+                throw e;
+            }
+            synchronized (this) {
+                for (Map.Entry<Integer, Student> change : journal) {
+                    if (change.getValue() == null)
+                        rebuilt.remove(change.getKey());
+                    else
+                        rebuilt.put(change.getValue());
+                }
+                journal = null;
+                index = rebuilt;
+                built = true;
+            }
+        }
+    }
+
+    private void buildIfNeeded() {
+        if (built)
+            return;
+        synchronized (rebuildLock) {
+            if (!built)
+                rebuild();
+        }
+    }
+
+    @EventListener
+    public void onStudentChanged(StudentChangedEvent event) {
+        switch (event.getType()) {
+            case ADDED, UPDATED, GRADE_SET -> {
+                Student student = event.getStudent() != null ? event.getStudent() : reload(event.getStudentId());
+                if (student == null)
+                    remove(event.getStudentId());
+                else
+                    put(student);
+            }
+            case DELETED -> {
+                // A bulk delete doesn't tell which students went away
+                if (event.getStudentId() == 0)
+                    removeDeletedStudents();
+                else
+                    remove(event.getStudentId());
+            }
+            case COURSE_GRADE_SET -> {
+                // Nothing indexed changed
+            }
+        }
+    }
+
+    private Student reload(int studentId) {
+        try {
+            return studentService.getStudentById(studentId);
+        } catch (ResponseStatusException e) {
+            return null;
+        }
+    }
+
+    // Only ids are read. Students indexed after the ids were taken are left alone, they can't have been
+    // deleted by the bulk delete
+    private void removeDeletedStudents() {
+        int[] indexedIds;
+        synchronized (this) {
+            indexedIds = index.students.keySet().stream().mapToInt(Integer::intValue).toArray();
+        }
+        int[] remainingIds = studentService.getAllStudentIds().stream().mapToInt(Integer::intValue).sorted().toArray();
+        synchronized (this) {
+            for (int id : indexedIds)
+                if (Arrays.binarySearch(remainingIds, id) < 0)
+                    remove(id);
+        }
+    }
+
+    public synchronized void put(Student student) {
+        index.put(student);
+        if (journal != null)
+            journal.add(new AbstractMap.SimpleEntry<>(student.getId(), student));
+    }
+
+    public synchronized void remove(int studentId) {
+        index.remove(studentId);
+        if (journal != null)
+            journal.add(new AbstractMap.SimpleEntry<>(studentId, null));
+    }
+
+    // Every term has to match some field, students are ranked by prefix over substring over typo matches
+    public List<Student> search(String query, int page, int size) {
+        if(page < 0 || size < 1 || size > 100)
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Page should be at least 0 and size 1 - 100");
+        buildIfNeeded();
+        Index current = index;
+        Map<Integer, Integer> scores = null;
+        for (String term : query.toLowerCase(Locale.ROOT).trim().split("\\s+")) {
+            if (term.isEmpty() || STOPWORDS.contains(term))
+                continue;
+            Map<Integer, Integer> termScores = current.scoreTerm(term);
+            // Only matched tokens too common to score, the term narrows nothing down
+            if (termScores == null)
+                continue;
+            if (scores == null) {
+                scores = termScores;
+            } else {
+                Map<Integer, Integer> bothScores = new HashMap<>();
+                for (Map.Entry<Integer, Integer> entry : scores.entrySet()) {
+                    Integer termScore = termScores.get(entry.getKey());
+                    if (termScore != null)
+                        bothScores.put(entry.getKey(), entry.getValue() + termScore);
+                }
+                scores = bothScores;
+            }
+        }
+        if (scores == null || (long) page * size >= scores.size())
+            return List.of();
+        // Only the best (page + 1) * size are kept, the worst of them on top of the heap
+        int wanted = (page + 1) * size;
+        PriorityQueue<Map.Entry<Integer, Integer>> best = new PriorityQueue<>(Math.min(wanted, scores.size()), BEST_FIRST.reversed());
+        for (Map.Entry<Integer, Integer> entry : scores.entrySet()) {
+            if (best.size() < wanted) {
+                best.add(entry);
+            } else if (BEST_FIRST.compare(entry, best.peek()) < 0) {
+                best.poll();
+                best.add(entry);
+            }
+        }
+        return best.stream()
+                .sorted(BEST_FIRST)
+                .skip((long) page * size)
+                .map(entry -> current.students.get(entry.getKey()))
+                .filter(Objects::nonNull)
+                .toList();
+    }
+
+    // The students and their tokens, changed only while holding the lock of the search index
+    private static class Index {
+        private final Map<Integer, Student> students = new ConcurrentHashMap<>();
+        private final Map<Integer, Set<String>> tokensByStudent = new ConcurrentHashMap<>();
+        private final ConcurrentSkipListMap<String, Set<Integer>> studentsByToken = new ConcurrentSkipListMap<>();
+        private final Map<String, Set<String>> tokensByTrigram = new ConcurrentHashMap<>();
+
+        private void put(Student student) {
+            remove(student.getId());
+            Set<String> tokens = tokensOf(student);
+            students.put(student.getId(), student);
+            tokensByStudent.put(student.getId(), tokens);
+            for (String token : tokens) {
+                Set<Integer> ids = studentsByToken.get(token);
+                if (ids == null) {
+                    ids = ConcurrentHashMap.newKeySet();
+                    studentsByToken.put(token, ids);
+                    if (hasTrigrams(token))
+                        for (String trigram : trigramsOf(token))
+                            tokensByTrigram.computeIfAbsent(trigram, key -> ConcurrentHashMap.newKeySet()).add(token);
+                }
+                ids.add(student.getId());
+            }
+        }
+
+        private void remove(int studentId) {
+            students.remove(studentId);
+            Set<String> tokens = tokensByStudent.remove(studentId);
+            if (tokens == null)
+                return;
+            for (String token : tokens) {
+                Set<Integer> ids = studentsByToken.get(token);
+                ids.remove(studentId);
+                if (!ids.isEmpty())
+                    continue;
+                studentsByToken.remove(token);
+                if (!hasTrigrams(token))
+                    continue;
+                for (String trigram : trigramsOf(token)) {
+                    Set<String> trigramTokens = tokensByTrigram.get(trigram);
+                    trigramTokens.remove(token);
+                    if (trigramTokens.isEmpty())
+                        tokensByTrigram.remove(trigram);
+                }
+            }
+        }
+
+        // Null when every matching token was skipped as too common
+        private Map<Integer, Integer> scoreTerm(String term) {
+            // Best score first, so when the cap is reached the students left out are the worst matches
+            Map<String, Integer> tokenScores = new LinkedHashMap<>();
+            NavigableMap<String, Set<Integer>> prefixMatches = studentsByToken.subMap(term, true, term + Character.MAX_VALUE, false);
+            for (String token : prefixMatches.keySet()) {
+                if (tokenScores.size() == MAX_PREFIX_TOKENS)
+                    break;
+                tokenScores.put(token, PREFIX_SCORE);
+            }
+            if (term.length() >= 3) {
+                for (String token : tokensContaining(term))
+                    tokenScores.putIfAbsent(token, SUBSTRING_SCORE);
+                for (String token : tokensSimilarTo(term))
+                    tokenScores.putIfAbsent(token, FUZZY_SCORE);
+            }
+            Map<Integer, Integer> studentScores = new HashMap<>();
+            boolean skippedCommon = false;
+            scoring:
+            for (Map.Entry<String, Integer> tokenScore : tokenScores.entrySet()) {
+                Set<Integer> ids = studentsByToken.get(tokenScore.getKey());
+                if (ids == null)
+                    continue;
+                if (isCommon(ids.size())) {
+                    skippedCommon = true;
+                    continue;
+                }
+                for (Integer id : ids) {
+                    if (studentScores.size() == MAX_SCORED_STUDENTS && !studentScores.containsKey(id))
+                        break scoring;
+                    studentScores.merge(id, tokenScore.getValue(), Math::max);
+                }
+            }
+            return skippedCommon && studentScores.isEmpty() ? null : studentScores;
+        }
+
+        private boolean isCommon(int studentsWithToken) {
+            return students.size() >= COMMON_TOKEN_MIN_STUDENTS && studentsWithToken > students.size() / 2;
+        }
+
+        private Set<String> tokensContaining(String term) {
+            List<Set<String>> postings = new ArrayList<>();
+            for (String trigram : plainTrigramsOf(term)) {
+                Set<String> tokens = tokensByTrigram.get(trigram);
+                if (tokens == null)
+                    return Set.of();
+                postings.add(tokens);
+            }
+            // Intersect starting from the rarest trigram
+            postings.sort(Comparator.comparingInt(Set::size));
+            Set<String> matches = new HashSet<>();
+            for (String token : postings.get(0))
+                if (token.contains(term))
+                    matches.add(token);
+            return matches;
+        }
+
+        private Set<String> tokensSimilarTo(String term) {
+            int maxEdits = term.length() <= 5 ? 1 : 2;
+            List<String> trigrams = trigramsOf(term);
+            // Every edit destroys at most three trigrams
+            int minimumShared = Math.max(1, trigrams.size() - 3 * maxEdits);
+            Map<String, Integer> shared = new HashMap<>();
+            for (String trigram : trigrams) {
+                Set<String> tokens = tokensByTrigram.get(trigram);
+                if (tokens != null)
+                    tokens.forEach(token -> shared.merge(token, 1, Integer::sum));
+            }
+            Set<String> matches = new HashSet<>();
+            shared.forEach((token, count) -> {
+                if (count >= minimumShared && Math.abs(token.length() - term.length()) <= maxEdits
+                        && editDistance(token, term, maxEdits) <= maxEdits)
+                    matches.add(token);
+            });
+            return matches;
+        }
+    }
+
+    // The email domain is shared by most students, only the whole address and its local part are tokens
+    private static Set<String> tokensOf(Student student) {
+        Set<String> tokens = new HashSet<>();
+        addTokens(tokens, student.getFirstName());
+        addTokens(tokens, student.getLastName());
+        if (student.getEmail() != null) {
+            String email = student.getEmail().toLowerCase(Locale.ROOT);
+            int at = email.indexOf('@');
+            if (at > 0)
+                tokens.add(email);
+            addTokens(tokens, at < 0 ? email : email.substring(0, at));
+        }
+        return tokens;
+    }
+
+    private static void addTokens(Set<String> tokens, String field) {
+        if (field == null)
+            return;
+        String value = field.toLowerCase(Locale.ROOT);
+        if (!value.isEmpty() && !STOPWORDS.contains(value))
+            tokens.add(value);
+        for (String part : value.split("[\\s.\\-_]+"))
+            if (!part.isEmpty() && !STOPWORDS.contains(part))
+                tokens.add(part);
+    }
+
+    // Whole addresses are only found by prefix, in the trigram index they would share the domain's trigrams
+    private static boolean hasTrigrams(String token) {
+        return token.indexOf('@') < 0;
+    }
+
+    // Padded, so the first and last letters carry as much weight as the ones in the middle
+    private static List<String> trigramsOf(String token) {
+        return plainTrigramsOf("^" + token + "$");
+    }
+
+    private static List<String> plainTrigramsOf(String value) {
+        List<String> trigrams = new ArrayList<>();
+        for (int i = 0; i + 3 <= value.length(); i++)
+            trigrams.add(value.substring(i, i + 3));
+        return trigrams;
+    }
+
+    // Levenshtein distance, gives up with maxEdits + 1 as soon as a row exceeds maxEdits
+    static int editDistance(String a, String b, int maxEdits) {
+        int[] previous = new int[b.length() + 1];
+        int[] current = new int[b.length() + 1];
+        for (int j = 0; j <= b.length(); j++)
+            previous[j] = j;
+        for (int i = 1; i <= a.length(); i++) {
+            current[0] = i;
+            int rowMinimum = current[0];
+            for (int j = 1; j <= b.length(); j++) {
+                int substitution = previous[j - 1] + (a.charAt(i - 1) == b.charAt(j - 1) ? 0 : 1);
+                current[j] = Math.min(substitution, Math.min(previous[j], current[j - 1]) + 1);
+                rowMinimum = Math.min(rowMinimum, current[j]);
+            }
+            if (rowMinimum > maxEdits)
+                return maxEdits + 1;
+            int[] swap = previous;
+            previous = current;
+            current = swap;
+        }
+        return previous[b.length()];
+    }
+}
@@ -0,0 +1,77 @@
+package se.verran.springbootdemowithtests.seeding;
+
+import se.verran.springbootdemowithtests.entities.Student;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.SplittableRandom;
+
+// Generates the same students for the same seed. Every student is derived from the seed and its
+// index alone, so any range can be generated on its own and in any order, and the index in the
+// email keeps emails unique however many students are generated
+public class RosterGenerator {
+    // Ages are counted from here and not from today, so a seed gives the same roster every year
+    static final LocalDate REFERENCE_DATE = LocalDate.of(2024, 9, 1);
+    private static final String[] FIRST_NAMES = {
+            "Anna", "Bertil", "Cecilia", "David", "Elin", "Filip", "Greta", "Hugo", "Ida", "Johan",
+            "Karin", "Lars", "Maja", "Nils", "Olivia", "Per", "Rut", "Sven", "Tove", "Ulf",
+            "Vera", "William", "Alice", "Oscar", "Ebba", "Lucas", "Wilma", "Elias", "Saga", "Axel",
+            "Astrid", "Viktor", "Linnea", "Emil", "Klara", "Anton", "Julia", "Isak", "Stina", "Erik"};
+    private static final String[] LAST_NAMES = {
+            "Andersson", "Johansson", "Karlsson", "Nilsson", "Eriksson", "Larsson", "Olsson", "Persson",
+            "Svensson", "Gustafsson", "Pettersson", "Jonsson", "Jansson", "Hansson", "Bengtsson", "Lindberg",
+            "Jakobsson", "Magnusson", "Lindstrom", "Olofsson", "Lindqvist", "Lindgren", "Berg", "Axelsson",
+            "Bergstrom", "Lundberg", "Lind", "Lundgren", "Lundqvist", "Mattsson", "Berglund", "Fredriksson",
+            "Sandberg", "Henriksson", "Forsberg", "Sjoberg", "Ali", "Wallin", "Mohammed", "Ekstedt"};
+
+    private final long seed;
+    // Share of students without a grade yet
+    private final double ungradedFraction;
+
+    public RosterGenerator(long seed) {
+        this(seed, 0);
+    }
+
+    public RosterGenerator(long seed, double ungradedFraction) {
+        if (ungradedFraction < 0 || ungradedFraction > 1)
+            throw new IllegalArgumentException("Ungraded fraction should be between 0 and 1");
+        this.seed = seed;
+        this.ungradedFraction = ungradedFraction;
+    }
+
+    public Student student(long index) {
+        SplittableRandom random = new SplittableRandom(seed * 0x9E3779B97F4A7C15L + index);
+        String firstName = FIRST_NAMES[random.nextInt(FIRST_NAMES.length)];
+        String lastName = LAST_NAMES[random.nextInt(LAST_NAMES.length)];
+        Student student = new Student(firstName, lastName, birthDate(random),
+                firstName.toLowerCase(Locale.ROOT) + "." + lastName.toLowerCase(Locale.ROOT) + "." + index + "@example.edu");
+        if (random.nextDouble() >= ungradedFraction)
+            student.setJavaProgrammingGrade(grade(random));
+        return student;
+    }
+
+    public List<Student> students(long firstIndex, int count) {
+        List<Student> students = new ArrayList<>(count);
+        for (long index = firstIndex; index < firstIndex + count; index++)
+            students.add(student(index));
+        return students;
+    }
+
+    // Mostly 19 to 25, with a tail of older students up to 65
+    private static LocalDate birthDate(SplittableRandom random) {
+        double age = 19 + Math.abs(random.nextGaussian()) * 4;
+        if (random.nextInt(10) == 0)
+            age += random.nextDouble() * 25;
+        age = Math.min(age, 65);
+        return REFERENCE_DATE.minusDays((long) (age * 365.25));
+    }
+
+    // Grades are 0.0 - 5.0, centered a bit above the middle, one decimal like the ones set by hand
+    private static double grade(SplittableRandom random) {
+        double grade = 3.2 + random.nextGaussian();
+        grade = Math.max(0, Math.min(5, grade));
+        return Math.round(grade * 10) / 10.0;
+    }
+}
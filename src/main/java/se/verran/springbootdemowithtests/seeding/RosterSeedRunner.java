@@ -0,0 +1,68 @@
+package se.verran.springbootdemowithtests.seeding;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.boot.SpringApplication;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.stereotype.Component;
+import se.verran.springbootdemowithtests.sharding.StudentShards;
+
+import javax.sql.DataSource;
+import java.util.concurrent.TimeUnit;
+
+// Seeds the database when started with --roster.seed.count=<students>, and with
+// --roster.seed.exit=true stops again afterwards instead of serving requests
+@Component
+@ConditionalOnProperty(name = "roster.seed.count")
+public class RosterSeedRunner implements ApplicationRunner {
+    private static final Logger log = LoggerFactory.getLogger(RosterSeedRunner.class);
+
+    private final DataSource dataSource;
+    private final StudentShards studentShards;
+    private final ConfigurableApplicationContext context;
+    private final long count;
+    private final long seed;
+    private final long firstIndex;
+    private final int batchSize;
+    private final double ungradedFraction;
+    private final boolean exit;
+
+    @Autowired
+    public RosterSeedRunner(DataSource dataSource, StudentShards studentShards, ConfigurableApplicationContext context,
+                            @Value("${roster.seed.count}") long count,
+                            @Value("${roster.seed.seed:42}") long seed,
+                            @Value("${roster.seed.first-index:0}") long firstIndex,
+                            @Value("${roster.seed.batch-size:5000}") int batchSize,
+                            @Value("${roster.seed.ungraded-fraction:0}") double ungradedFraction,
+                            @Value("${roster.seed.exit:false}") boolean exit) {
+        this.dataSource = dataSource;
+        this.studentShards = studentShards;
+        this.context = context;
+        this.count = count;
+        this.seed = seed;
+        this.firstIndex = firstIndex;
+        this.batchSize = batchSize;
+        this.ungradedFraction = ungradedFraction;
+        this.exit = exit;
+    }
+
+    @Override
+    public void run(ApplicationArguments args) {
+        long started = System.nanoTime();
+        long reportEvery = Math.max(batchSize, count / 20);
+        long inserted = new RosterSeeder(dataSource, studentShards).seed(new RosterGenerator(seed, ungradedFraction), firstIndex, count, batchSize, progress -> {
+            if (progress % reportEvery < batchSize && progress < count)
+                log.info("roster seed inserted={} of={}", progress, count);
+        });
+        long millis = Math.max(1, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started));
+        log.info("roster seed inserted={} seed={} firstIndex={} millis={} rowsPerMinute={}",
+                inserted, seed, firstIndex, millis, inserted * 60_000 / millis);
+        if (exit)
+            System.exit(SpringApplication.exit(context));
+    }
+}
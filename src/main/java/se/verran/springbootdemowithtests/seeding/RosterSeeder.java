@@ -0,0 +1,77 @@
+package se.verran.springbootdemowithtests.seeding;
+
+import org.springframework.jdbc.core.JdbcTemplate;
+import se.verran.springbootdemowithtests.entities.Student;
+import se.verran.springbootdemowithtests.sharding.StudentShards;
+
+import javax.sql.DataSource;
+import java.sql.Date;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.LongConsumer;
+
+// Inserts generated students straight into the student table in JDBC batches, past JPA and its
+// per entity overhead. On MySQL add rewriteBatchedStatements=true to the url so every batch is
+// sent as one multi row insert.
+// Every batch is split by the shard strategy and each part inserted on its own shard, the same
+// way StudentService places students it adds
+// Rows inserted this way raise no StudentChangedEvent, the search index and the roster snapshot
+// pick them up on their next rebuild or catch up
+public class RosterSeeder {
+    static final String INSERT = "insert into student (first_name, last_name, birth_date, email, java_programming_grade, version, deleted, modified_at) "
+            + "values (?, ?, ?, ?, ?, 0, false, ?)";
+
+    private final JdbcTemplate jdbcTemplate;
+    private final StudentShards studentShards;
+
+    public RosterSeeder(DataSource dataSource, StudentShards studentShards) {
+        this.jdbcTemplate = new JdbcTemplate(dataSource);
+        this.studentShards = studentShards;
+    }
+
+    public long seed(RosterGenerator generator, long firstIndex, long count, int batchSize) {
+        return seed(generator, firstIndex, count, batchSize, inserted -> {
+        });
+    }
+
+    // progress gets the number of students inserted so far after every batch
+    public long seed(RosterGenerator generator, long firstIndex, long count, int batchSize, LongConsumer progress) {
+        if (batchSize < 1)
+            throw new IllegalArgumentException("Batch size should be at least 1");
+        Timestamp modifiedAt = Timestamp.from(Instant.now());
+        long inserted = 0;
+        while (inserted < count) {
+            List<Student> batch = generator.students(firstIndex + inserted, (int) Math.min(batchSize, count - inserted));
+            List<List<Student>> byShard = new ArrayList<>();
+            for (int shard = 0; shard < studentShards.getNumberOfShards(); shard++)
+                byShard.add(new ArrayList<>());
+            for (Student student : batch)
+                byShard.get(studentShards.getStrategy().shardForNewStudent(student)).add(student);
+            for (int shard = 0; shard < byShard.size(); shard++) {
+                List<Student> students = byShard.get(shard);
+                if (!students.isEmpty())
+                    studentShards.onShard(shard, () -> insert(students, modifiedAt));
+            }
+            inserted += batch.size();
+            progress.accept(inserted);
+        }
+        return inserted;
+    }
+
+    private int[][] insert(List<Student> students, Timestamp modifiedAt) {
+        return jdbcTemplate.batchUpdate(INSERT, students, students.size(), (statement, student) -> {
+            statement.setString(1, student.getFirstName());
+            statement.setString(2, student.getLastName());
+            statement.setDate(3, Date.valueOf(student.getBirthDate()));
+            statement.setString(4, student.getEmail());
+            if (student.getJavaProgrammingGrade() == null)
+                statement.setNull(5, Types.DOUBLE);
+            else
+                statement.setDouble(5, student.getJavaProgrammingGrade());
+            statement.setTimestamp(6, modifiedAt);
+        });
+    }
+}
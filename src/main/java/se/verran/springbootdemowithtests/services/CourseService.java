@@ -0,0 +1,139 @@
+package se.verran.springbootdemowithtests.services;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.web.server.ResponseStatusException;
+import se.verran.springbootdemowithtests.entities.Course;
+import se.verran.springbootdemowithtests.entities.Grade;
+import se.verran.springbootdemowithtests.entities.Student;
+import se.verran.springbootdemowithtests.events.StudentChangedEvent;
+import se.verran.springbootdemowithtests.repositories.CourseRepository;
+import se.verran.springbootdemowithtests.repositories.GradeRepository;
+import se.verran.springbootdemowithtests.repositories.GradeSummary;
+import se.verran.springbootdemowithtests.sharding.StudentShards;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.OptionalDouble;
+import java.util.TreeMap;
+
+// Courses are few and kept on the first shard. Grades are kept on the shard of their student
+@Service
+public class CourseService {
+    // Ids per grade query, well below the IN list limits of the databases
+    private static final int GRADE_FETCH_CHUNK = 1000;
+    private static final Comparator<Grade> BEST_GRADE_FIRST = Comparator.comparingDouble(Grade::getValue).reversed()
+            .thenComparingInt(Grade::getStudentId);
+
+    private final CourseRepository courseRepository;
+    private final GradeRepository gradeRepository;
+    private final StudentService studentService;
+    private final StudentShards studentShards;
+    private final ApplicationEventPublisher eventPublisher;
+
+    @Autowired
+    public CourseService(CourseRepository courseRepository, GradeRepository gradeRepository, StudentService studentService, StudentShards studentShards, ApplicationEventPublisher eventPublisher) {
+        this.courseRepository = courseRepository;
+        this.gradeRepository = gradeRepository;
+        this.studentService = studentService;
+        this.studentShards = studentShards;
+        this.eventPublisher = eventPublisher;
+    }
+
+    public Course addCourse(Course course) {
+        if (courseRepository.existsByCode(course.getCode()))
+            throw new ResponseStatusException(HttpStatus.CONFLICT, "Course " + course.getCode() + " already exists");
+        return courseRepository.save(course);
+    }
+
+    public List<Course> getAllCourses() {
+        return courseRepository.findAll();
+    }
+
+    public Course getCourseByCode(String code) {
+        return courseRepository.findByCode(code).orElseThrow(() ->
+                new ResponseStatusException(HttpStatus.NOT_FOUND, "Could not find course " + code));
+    }
+
+    public Grade setGrade(int studentId, String courseCode, String gradeAsString) {
+        double grade = StudentService.parseGrade(gradeAsString);
+        Course course = getCourseByCode(courseCode);
+        studentService.getStudentById(studentId);
+        int shard = studentService.shardOf(studentId).orElseThrow(() ->
+                new ResponseStatusException(HttpStatus.NOT_FOUND, "Could not find student by id " + studentId));
+        Grade savedGrade = studentShards.onShard(shard, () -> gradeRepository.save(new Grade(studentId, course.getId(), grade)));
+        eventPublisher.publishEvent(new StudentChangedEvent(studentId, course.getCode(), grade));
+        return savedGrade;
+    }
+
+    @Transactional(readOnly = true)
+    public List<StudentGrades> getStudentsWithGrades(int page, int size) {
+        return withGrades(studentService.getStudentsPage(page, size));
+    }
+
+    // Grades for all students in a few queries, however many students and courses there are
+    @Transactional(readOnly = true)
+    public List<StudentGrades> withGrades(List<Student> students) {
+        Map<Integer, String> courseCodes = new HashMap<>();
+        for (Course course : courseRepository.findAll())
+            courseCodes.put(course.getId(), course.getCode());
+        Map<Integer, Map<String, Double>> gradesByStudent = new HashMap<>();
+        List<Integer> studentIds = students.stream().map(Student::getId).toList();
+        for (int from = 0; from < studentIds.size(); from += GRADE_FETCH_CHUNK) {
+            List<Integer> chunk = studentIds.subList(from, Math.min(from + GRADE_FETCH_CHUNK, studentIds.size()));
+            for (List<Grade> grades : studentShards.onAllShards(() -> gradeRepository.findByStudentIdIn(chunk)))
+                for (Grade grade : grades)
+                    gradesByStudent.computeIfAbsent(grade.getStudentId(), id -> new TreeMap<>())
+                            .put(courseCodes.get(grade.getCourseId()), grade.getValue());
+        }
+        List<StudentGrades> studentGrades = new ArrayList<>(students.size());
+        for (Student student : students)
+            studentGrades.add(new StudentGrades(student, gradesByStudent.getOrDefault(student.getId(), Map.of())));
+        return studentGrades;
+    }
+
+    @Transactional(readOnly = true)
+    public OptionalDouble averageGrade(Course course) {
+        return summarize(course).averageGrade();
+    }
+
+    @Transactional(readOnly = true)
+    public long countGraded(Course course) {
+        return summarize(course).getGraded();
+    }
+
+    // Count and sum per shard, added up
+    private GradeSummary summarize(Course course) {
+        return studentShards.onAllShards(() -> gradeRepository.summarizeCourse(course.getId()), GradeSummary::plus);
+    }
+
+    // Best grade first, every shard gives its own top limit
+    @Transactional(readOnly = true)
+    public List<Student> topScoringStudents(Course course, int limit) {
+        if (limit < 1)
+            return List.of();
+        List<Grade> topGrades = studentShards.firstOnAllShards(
+                () -> gradeRepository.findTopGradesInCourse(course.getId(), PageRequest.of(0, limit)), BEST_GRADE_FIRST, limit);
+        return studentService.getStudentsByIds(topGrades.stream().map(Grade::getStudentId).toList());
+    }
+
+    // Number of students per whole grade 0 - 4, where 4 also holds 5.0
+    @Transactional(readOnly = true)
+    public Map<Integer, Long> gradeHistogram(Course course) {
+        Map<Integer, Long> histogram = new LinkedHashMap<>();
+        for (int bucket = 0; bucket <= 4; bucket++)
+            histogram.put(bucket, 0L);
+        for (List<GradeRepository.GradeBucket> buckets : studentShards.onAllShards(() -> gradeRepository.gradeHistogramInCourse(course.getId())))
+            for (GradeRepository.GradeBucket bucket : buckets)
+                histogram.merge(bucket.getBucket().intValue(), bucket.getStudents().longValue(), Long::sum);
+        return histogram;
+    }
+}
@@ -4,23 +4,47 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.HttpStatus;
 import org.springframework.stereotype.Service;
 import org.springframework.web.server.ResponseStatusException;
+import se.verran.springbootdemowithtests.entities.Course;
 import se.verran.springbootdemowithtests.entities.Student;
+import se.verran.springbootdemowithtests.repositories.GradeSummary;
+import se.verran.springbootdemowithtests.roster.RosterSnapshot;
 
 import java.util.List;
+import java.util.Map;
+import java.util.OptionalDouble;
 
 @Service
 public class SchoolService {
 
 
     private final StudentService studentService;
+    private final StatisticsCoalescer statisticsCoalescer;
+    private final RosterSnapshot rosterSnapshot;
+    private final CourseService courseService;
     @Autowired
-    public SchoolService(StudentService studentService) {
+    public SchoolService(StudentService studentService, StatisticsCoalescer statisticsCoalescer, RosterSnapshot rosterSnapshot, CourseService courseService) {
         this.studentService = studentService;
+        this.statisticsCoalescer = statisticsCoalescer;
+        this.rosterSnapshot = rosterSnapshot;
+        this.courseService = courseService;
     }
 
-    // How many groups I would like, don't know how many students
+    // No transaction out here: requests waiting on a shared computation would each hold a pooled
+    // connection. The computations only use StudentService, which opens its own read only transactions
+    public int countStudents() {
+        return statisticsCoalescer.get("countstudents", this::numberOfStudents);
+    }
+    // The roster snapshot keeps a running count, no need to load every student for it
+    private int numberOfStudents() {
+        if (rosterSnapshot.isReady())
+            return (int) rosterSnapshot.count();
+        return (int) studentService.countStudents();
+    }
+
+    // How many groups I would like, don't know how many students.
+    // Only the count is shared and memoized, the answer is cheap and n is whatever the client sends
     public String numberOfStudentsPerGroupWhenDivideIntoNumberOfGroups(int numberOfGroups) {
-        int numberOfStudents = studentService.getAllStudents().size();
+        int numberOfStudents = countStudents();
         if(numberOfGroups < 2)
             return "There should be at least two groups";
         if(numberOfGroups > numberOfStudents)
@@ -36,7 +60,7 @@ public class SchoolService {
     }
     // How many students per group I would like, don't know how many students and how many groups I end up with
     public String numberOfGroupsWhenDividedIntoGroupsOf(int studentsPerGroup){
-        int numberOfStudents = studentService.getAllStudents().size();
+        int numberOfStudents = countStudents();
         if(studentsPerGroup < 2)
             return "Size of group should be at least 2";
         if(numberOfStudents < studentsPerGroup || numberOfStudents / studentsPerGroup < 2)
@@ -50,25 +74,57 @@ public class SchoolService {
     }
 
     public String calculateAverageGrade() {
-        List<Student> studentList = studentService.getAllStudents();
-        if(studentList.isEmpty())
+        return statisticsCoalescer.get("averagegrade", this::averageGrade);
+    }
+    private String averageGrade() {
+        OptionalDouble rosterAverage = rosterSnapshot.isReady() ? rosterSnapshot.averageGrade() : OptionalDouble.empty();
+        if (rosterAverage.isPresent())
+            return String.format("Average grade is %.1f", rosterAverage.getAsDouble());
+        // Otherwise every shard sums its own grades
+        GradeSummary summary = studentService.summarizeGrades();
+        if(summary.getStudents() == 0)
             throw new ResponseStatusException(HttpStatus.NOT_FOUND, "No students found");
-        double totalSum = 0.0;
-        for (Student student: studentList)
-            totalSum += student.getJavaProgrammingGrade();
-        double average = totalSum / studentList.size();
-        return String.format("Average grade is %.1f", average);
+        OptionalDouble average = summary.averageGrade();
+        if(average.isEmpty())
+            throw new ResponseStatusException(HttpStatus.NOT_FOUND, "No grades found");
+        return String.format("Average grade is %.1f", average.getAsDouble());
     }
 
     public List<Student> getTopScoringStudents() {
-        List<Student> studentList = studentService.getAllStudents();
-        if(studentList.isEmpty())
+        return statisticsCoalescer.get("top20percentscoringstudents", this::topScoringStudents);
+    }
+    // Top 20 percent of all students, every shard gives its own top and only those are merged
+    private List<Student> topScoringStudents() {
+        long numberOfStudents = studentService.countStudents();
+        if(numberOfStudents == 0)
             throw new ResponseStatusException(HttpStatus.NOT_FOUND, "No students found");
-        List<Student> sortedStudentList = studentList
-                .stream()
-                .sorted((student1, student2)->Double.compare(student2.getJavaProgrammingGrade(), student1.getJavaProgrammingGrade()))
-                .toList();
-        int numberOfTopStudents = (int)Math.ceil(sortedStudentList.size()*0.2);
-        return sortedStudentList.subList(0, numberOfTopStudents);
+        int numberOfTopStudents = (int)Math.ceil(numberOfStudents*0.2);
+        return studentService.getTopScoringStudents(numberOfTopStudents);
+    }
+
+    // Per course statistics are aggregated by the database, no students are loaded except the top ones
+    public String calculateAverageGrade(String courseCode) {
+        return statisticsCoalescer.get("averagegrade/" + courseCode, () -> averageGrade(courseService.getCourseByCode(courseCode)));
+    }
+    private String averageGrade(Course course) {
+        OptionalDouble average = courseService.averageGrade(course);
+        if(average.isEmpty())
+            throw new ResponseStatusException(HttpStatus.NOT_FOUND, "No grades found in course " + course.getCode());
+        return String.format("Average grade is %.1f", average.getAsDouble());
+    }
+
+    public List<Student> getTopScoringStudents(String courseCode) {
+        return statisticsCoalescer.get("top20percentscoringstudents/" + courseCode, () -> topScoringStudents(courseService.getCourseByCode(courseCode)));
+    }
+    private List<Student> topScoringStudents(Course course) {
+        long numberOfGradedStudents = courseService.countGraded(course);
+        if(numberOfGradedStudents == 0)
+            throw new ResponseStatusException(HttpStatus.NOT_FOUND, "No grades found in course " + course.getCode());
+        int numberOfTopStudents = (int)Math.ceil(numberOfGradedStudents*0.2);
+        return courseService.topScoringStudents(course, numberOfTopStudents);
+    }
+
+    public Map<Integer, Long> getGradeHistogram(String courseCode) {
+        return statisticsCoalescer.get("gradehistogram/" + courseCode, () -> courseService.gradeHistogram(courseService.getCourseByCode(courseCode)));
     }
 }
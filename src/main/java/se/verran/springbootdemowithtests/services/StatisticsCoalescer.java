@@ -0,0 +1,114 @@
+package se.verran.springbootdemowithtests.services;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import se.verran.springbootdemowithtests.events.StudentChangedEvent;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+// Concurrent requests for the same statistic share one computation, and the result is reused
+// for a short while or until the next student write, whichever comes first
+@Component
+public class StatisticsCoalescer {
+    private final long memoizeMillis;
+    private final Map<String, Computation> computations = new ConcurrentHashMap<>();
+    // Bumped on every write, computations started before the bump are never reused
+    private final AtomicLong writeGeneration = new AtomicLong();
+    private final Counter requestCounter;
+    private final Counter computationCounter;
+
+    @Autowired
+    public StatisticsCoalescer(@Value("${school.statistics.memoize-ms:2000}") long memoizeMillis, MeterRegistry meterRegistry) {
+        this.memoizeMillis = memoizeMillis;
+        this.requestCounter = meterRegistry.counter("school.statistics.requests");
+        this.computationCounter = meterRegistry.counter("school.statistics.computations");
+        Gauge.builder("school.statistics.coalescing.ratio", this, StatisticsCoalescer::coalescingRatio)
+                .description("Statistic requests per actual computation")
+                .register(meterRegistry);
+        Gauge.builder("school.statistics.memoized", computations, Map::size)
+                .description("Statistics kept for reuse")
+                .register(meterRegistry);
+    }
+
+    @SuppressWarnings("unchecked")
+    public <T> T get(String key, Supplier<T> computation) {
+        requestCounter.increment();
+        while (true) {
+            Computation existing = computations.get(key);
+            if (existing != null && isReusable(existing))
+                return (T) join(existing.result);
+            Computation fresh = new Computation(writeGeneration.get());
+            boolean claimed = existing == null
+                    ? computations.putIfAbsent(key, fresh) == null
+                    : computations.replace(key, existing, fresh);
+            // Someone else started a computation in between, join that one instead
+            if (!claimed)
+                continue;
+            computationCounter.increment();
+            try {
+                T value = computation.get();
+                fresh.completedAt = System.currentTimeMillis();
+                fresh.result.complete(value);
+                return value;
+            } catch (RuntimeException e) {
+                computations.remove(key, fresh);
+                fresh.result.completeExceptionally(e);
+                throw e;
+            }
+        }
+    }
+
+    // Results for keys nobody asks for again would otherwise stay until the next write
+    @Scheduled(fixedDelay = 60_000)
+    public void removeExpired() {
+        computations.values().removeIf(computation -> computation.result.isDone() && !isReusable(computation));
+    }
+
+    @EventListener
+    public void onStudentChanged(StudentChangedEvent event) {
+        writeGeneration.incrementAndGet();
+        computations.clear();
+    }
+
+    public double coalescingRatio() {
+        double computed = computationCounter.count();
+        return computed == 0 ? 0 : requestCounter.count() / computed;
+    }
+
+    private boolean isReusable(Computation computation) {
+        if (computation.writeGeneration != writeGeneration.get())
+            return false;
+        return !computation.result.isDone() || System.currentTimeMillis() - computation.completedAt <= memoizeMillis;
+    }
+
+    private static Object join(CompletableFuture<Object> result) {
+        try {
+            return result.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException cause)
+                throw cause;
+            throw e;
+        }
+    }
+
+    private static class Computation {
+        private final long writeGeneration;
+        private final CompletableFuture<Object> result = new CompletableFuture<>();
+        private volatile long completedAt;
+
+        private Computation(long writeGeneration) {
+            this.writeGeneration = writeGeneration;
+        }
+    }
+}
@@ -0,0 +1,24 @@
+package se.verran.springbootdemowithtests.services;
+
+import se.verran.springbootdemowithtests.entities.Student;
+
+import java.util.Map;
+
+// A student with its grades by course code
+public class StudentGrades {
+    private final Student student;
+    private final Map<String, Double> grades;
+
+    public StudentGrades(Student student, Map<String, Double> grades) {
+        this.student = student;
+        this.grades = grades;
+    }
+
+    public Student getStudent() {
+        return student;
+    }
+
+    public Map<String, Double> getGrades() {
+        return grades;
+    }
+}
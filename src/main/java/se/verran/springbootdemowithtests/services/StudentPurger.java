@@ -0,0 +1,51 @@
+package se.verran.springbootdemowithtests.services;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import se.verran.springbootdemowithtests.repositories.GradeRepository;
+import se.verran.springbootdemowithtests.repositories.StudentRepository;
+import se.verran.springbootdemowithtests.sharding.StudentShards;
+
+import java.util.List;
+
+// Hard deletes tombstoned students in the background, a bounded batch per transaction.
+// Every shard purges its own tombstones, in parallel
+@Service
+@ConditionalOnProperty(name = "student.delete.soft", havingValue = "true")
+@Lazy(false)
+public class StudentPurger {
+    private final StudentRepository studentRepository;
+    private final GradeRepository gradeRepository;
+    private final StudentShards studentShards;
+    private final int batchSize;
+
+    @Autowired
+    public StudentPurger(StudentRepository studentRepository, GradeRepository gradeRepository, StudentShards studentShards, @Value("${student.purge.batch-size:500}") int batchSize) {
+        this.studentRepository = studentRepository;
+        this.gradeRepository = gradeRepository;
+        this.studentShards = studentShards;
+        this.batchSize = batchSize;
+    }
+
+    @Scheduled(fixedDelayString = "${student.purge.interval-ms:60000}")
+    public int purgeTombstonedStudents(){
+        return studentShards.onAllShards(this::purgeShard, Integer::sum);
+    }
+    private int purgeShard(){
+        int purged = 0;
+        List<Integer> ids = studentRepository.findTombstonedStudentIds(batchSize);
+        while(!ids.isEmpty()){
+            // Grades first, a failure in between leaves tombstones to retry rather than orphaned grades
+            gradeRepository.deleteGradesOfStudents(ids);
+            purged += studentRepository.purgeTombstonedStudents(ids);
+            if(ids.size() < batchSize)
+                break;
+            ids = studentRepository.findTombstonedStudentIds(batchSize);
+        }
+        return purged;
+    }
+}
@@ -1,52 +1,315 @@
 package se.verran.springbootdemowithtests.services;
 
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.data.domain.Limit;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.jpa.domain.Specification;
 import org.springframework.http.HttpStatus;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
 import org.springframework.web.server.ResponseStatusException;
+import se.verran.springbootdemowithtests.datasource.DataSourceRouting;
+import se.verran.springbootdemowithtests.datasource.RecentWrites;
 import se.verran.springbootdemowithtests.entities.Student;
+import se.verran.springbootdemowithtests.events.StudentChangedEvent;
+import se.verran.springbootdemowithtests.repositories.GradeRepository;
+import se.verran.springbootdemowithtests.repositories.GradeSummary;
 import se.verran.springbootdemowithtests.repositories.StudentRepository;
+import se.verran.springbootdemowithtests.sharding.StudentShards;
 
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.OptionalInt;
+import java.util.PriorityQueue;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
 
 @Service
 public class StudentService {
+    // Ungraded students after everyone with a grade, the id keeps equal grades in a stable order
+    private static final Comparator<Student> BEST_GRADE_FIRST = Comparator.comparing(Student::getJavaProgrammingGrade,
+            Comparator.nullsLast(Comparator.reverseOrder())).thenComparingInt(Student::getId);
+
     private final StudentRepository studentRepository;
+    private final RecentWrites recentWrites;
+    private final StudentShards studentShards;
+    private final ApplicationEventPublisher eventPublisher;
+    // When true deleted students are only tombstoned and StudentPurger removes them later
+    private final boolean softDelete;
 
     @Autowired
-    public StudentService(StudentRepository studentRepository) {
+    public StudentService(StudentRepository studentRepository, RecentWrites recentWrites, StudentShards studentShards, ApplicationEventPublisher eventPublisher, @Value("${student.delete.soft:false}") boolean softDelete) {
         this.studentRepository = studentRepository;
+        this.recentWrites = recentWrites;
+        this.studentShards = studentShards;
+        this.eventPublisher = eventPublisher;
+        this.softDelete = softDelete;
     }
 
     public Student addStudent(Student student){
-        boolean emailAlreadyExists = studentRepository.existsStudentByEmail(student.getEmail());
-        if(emailAlreadyExists){
+        if(emailExists(student.getEmail())){
             throw new ResponseStatusException(HttpStatus.CONFLICT, "Email " + student.getEmail() + " already exists");
         }
-        return studentRepository.save(student);
+        int shard = studentShards.getStrategy().shardForNewStudent(student);
+        Student savedStudent = studentShards.onShard(shard, () -> studentRepository.save(student));
+        recentWrites.recordWrite(savedStudent.getId());
+        eventPublisher.publishEvent(new StudentChangedEvent(StudentChangedEvent.Type.ADDED, savedStudent.getId(), savedStudent));
+        return savedStudent;
     }
+    @Transactional(readOnly = true)
     public List<Student> getAllStudents(){
-        return studentRepository.findAll();
+        List<List<Student>> studentsPerShard = studentShards.onAllShards(studentRepository::findAll);
+        if(studentsPerShard.size() == 1)
+            return studentsPerShard.get(0);
+        return studentsPerShard.stream().flatMap(List::stream).toList();
+    }
+    // Every student, a page at a time and one shard after the other. Each page is read on its own,
+    // so neither the caller nor a persistence context ever holds the whole roster
+    public void forEachStudentPage(int pageSize, Consumer<List<Student>> consumer){
+        for(int shard = 0; shard < studentShards.getNumberOfShards(); shard++){
+            int lastId = 0;
+            List<Student> page;
+            do {
+                int afterId = lastId;
+                page = studentShards.onShard(shard, () -> studentRepository.findByIdGreaterThanOrderById(afterId, Limit.of(pageSize)));
+                if(!page.isEmpty()){
+                    consumer.accept(page);
+                    lastId = page.get(page.size() - 1).getId();
+                }
+            } while(page.size() == pageSize);
+        }
+    }
+    // Like forEachStudentPage but best grade first. Every shard is read a keyset page at a time and the
+    // shards are merged, so no more than a page per shard is held at once
+    public void forEachStudentPageByGrade(int pageSize, Consumer<List<Student>> consumer){
+        PriorityQueue<GradeCursor> cursors = new PriorityQueue<>(Comparator.comparing(GradeCursor::peek, BEST_GRADE_FIRST));
+        for(int shard = 0; shard < studentShards.getNumberOfShards(); shard++){
+            GradeCursor cursor = new GradeCursor(shard, pageSize);
+            if(cursor.hasNext())
+                cursors.add(cursor);
+        }
+        List<Student> page = new ArrayList<>(pageSize);
+        while(!cursors.isEmpty()){
+            GradeCursor cursor = cursors.poll();
+            page.add(cursor.next());
+            if(cursor.hasNext())
+                cursors.add(cursor);
+            if(page.size() == pageSize){
+                consumer.accept(page);
+                page = new ArrayList<>(pageSize);
+            }
+        }
+        if(!page.isEmpty())
+            consumer.accept(page);
+    }
+    // Students per half grade, index 0 for 0.0 - 0.5 up to 9 for 4.5 - 5.0 and 10 for no grade. Every shard counts its own
+    @Transactional(readOnly = true)
+    public long[] getGradeDistribution(){
+        long[] counts = new long[11];
+        for(List<GradeRepository.GradeBucket> buckets : studentShards.onAllShards(studentRepository::gradeDistribution))
+            for(GradeRepository.GradeBucket bucket : buckets)
+                counts[bucket.getBucket().intValue()] += bucket.getStudents().longValue();
+        return counts;
+    }
+    // Counted and summed by every shard, only the totals are merged
+    @Transactional(readOnly = true)
+    public long countStudents(){
+        return studentShards.onAllShards(studentRepository::count, Long::sum);
+    }
+    @Transactional(readOnly = true)
+    public GradeSummary summarizeGrades(){
+        return studentShards.onAllShards(studentRepository::summarizeGrades, GradeSummary::plus);
+    }
+    // Best grade first, ungraded students are left out. Every shard gives its own top limit
+    @Transactional(readOnly = true)
+    public List<Student> getTopScoringStudents(int limit){
+        if(limit < 1)
+            return List.of();
+        return studentShards.firstOnAllShards(
+                () -> studentRepository.findByJavaProgrammingGradeNotNullOrderByJavaProgrammingGradeDesc(Limit.of(limit)),
+                Comparator.comparing(Student::getJavaProgrammingGrade).reversed(),
+                limit);
+    }
+    // For keeping copies of the roster up to date, like the roster snapshot
+    @Transactional(readOnly = true)
+    public List<Student> getStudentsModifiedAfter(Instant since){
+        return studentShards.onAllShards(() -> studentRepository.findByModifiedAtAfter(since)).stream().flatMap(List::stream).toList();
+    }
+    @Transactional(readOnly = true)
+    public List<Integer> getTombstonedStudentIdsModifiedAfter(Instant since){
+        return studentShards.onAllShards(() -> studentRepository.findTombstonedStudentIdsModifiedAfter(since)).stream().flatMap(List::stream).toList();
+    }
+    @Transactional(readOnly = true)
+    public List<Integer> getAllStudentIds(){
+        return studentShards.onAllShards(studentRepository::findAllStudentIds).stream().flatMap(List::stream).toList();
+    }
+    // Empty instead of 404, for callers to whom a missing student is no error
+    @Transactional(readOnly = true)
+    public Optional<Student> findStudentById(int id){
+        return findStudent(id);
+    }
+    // Emails can be changed after a student is placed, so every shard is asked
+    private boolean emailExists(String email){
+        return studentShards.onAllShards(() -> studentRepository.existsStudentByEmail(email)).contains(true);
+    }
+    // Sending a student's own email along in a PATCH is no conflict
+    private boolean emailExistsForOtherThan(int id, String email){
+        return studentShards.onAllShards(() -> studentRepository.existsStudentByEmailAndIdNot(email, id)).contains(true);
+    }
+    private boolean studentExists(int id){
+        return studentShards.onShardsForId(id, () -> studentRepository.existsById(id)).contains(true);
+    }
+    private Optional<Student> findStudent(int id){
+        return studentShards.onShardsForId(id, () -> studentRepository.findById(id)).stream()
+                .flatMap(Optional::stream)
+                .findFirst();
     }
 
+    // Only the shard that can hold the student is asked
     public void deleteStudent(int id){
-        if(!studentRepository.existsById(id)){
+        recentWrites.recordWrite(id);
+        List<Integer> deletedIds = studentShards.onShardsForId(id, () -> studentRepository.deleteStudentsById(List.of(id), softDelete)).stream()
+                .flatMap(List::stream)
+                .toList();
+        if(deletedIds.isEmpty()){
             throw new ResponseStatusException(HttpStatus.NOT_FOUND, "Could not find and delete student by id " + id);
         }
-        studentRepository.deleteById(id);
+        publishDeleted(deletedIds);
+    }
+    public int deleteStudents(List<Integer> ids){
+        if(ids.isEmpty())
+            return 0;
+        ids.forEach(recentWrites::recordWrite);
+        List<Integer> deletedIds = studentShards.onAllShards(() -> studentRepository.deleteStudentsById(ids, softDelete)).stream()
+                .flatMap(List::stream)
+                .toList();
+        publishDeleted(deletedIds);
+        return deletedIds.size();
+    }
+    // Requested ids without a student get no event, listeners would otherwise drop students they never had
+    private void publishDeleted(List<Integer> deletedIds){
+        deletedIds.forEach(id -> eventPublisher.publishEvent(new StudentChangedEvent(StudentChangedEvent.Type.DELETED, id, null)));
     }
+    public int deleteStudentsMatching(Specification<Student> specification){
+        int deleted = deleteMatching(specification);
+        if(deleted > 0)
+            eventPublisher.publishEvent(new StudentChangedEvent(StudentChangedEvent.Type.DELETED, 0, null));
+        return deleted;
+    }
+    private int deleteMatching(Specification<Student> specification){
+        return studentShards.onAllShards(() -> studentRepository.deleteStudents(specification, softDelete)).stream()
+                .mapToInt(Integer::intValue)
+                .sum();
+    }
+    // One versioned UPDATE, student.getVersion() is the version the client last read
     public Student updateStudent(Student student){
-        if(!studentRepository.existsById(student.getId())){
-            throw new ResponseStatusException(HttpStatus.NOT_FOUND, "Could not find and update student by id " + student.getId());
+        int id = student.getId();
+        requireVersion(student);
+        if(emailExistsForOtherThan(id, student.getEmail())){
+            throw new ResponseStatusException(HttpStatus.CONFLICT, "Email " + student.getEmail() + " already exists");
         }
-        return studentRepository.save(student);
+        recentWrites.recordWrite(id);
+        int affectedRows = studentShards.onShardsForId(id, () -> studentRepository.updateStudent(id, student.getVersion(), student)).stream()
+                .mapToInt(Integer::intValue)
+                .sum();
+        if(affectedRows == 0){
+            // Nothing updated, only now is it worth finding out why
+            if(!studentExists(id)){
+                throw new ResponseStatusException(HttpStatus.NOT_FOUND, "Could not find and update student by id " + id);
+            }
+            throw new ResponseStatusException(HttpStatus.CONFLICT, "Student by id " + id + " was updated by someone else, reload and try again");
+        }
+        student.setVersion(student.getVersion() + 1);
+        eventPublisher.publishEvent(new StudentChangedEvent(StudentChangedEvent.Type.UPDATED, id, student));
+        return student;
+    }
+    // Only the fields set in changes are updated, changes.getVersion() is the version the client last read
+    public int patchStudent(int id, Student changes){
+        requireVersion(changes);
+        if(changes.getEmail() != null && emailExistsForOtherThan(id, changes.getEmail())){
+            throw new ResponseStatusException(HttpStatus.CONFLICT, "Email " + changes.getEmail() + " already exists");
+        }
+        int affectedRows = studentShards.onShardsForId(id, () -> studentRepository.patchStudent(id, changes.getVersion(), changes)).stream()
+                .mapToInt(Integer::intValue)
+                .sum();
+        if(affectedRows == 1){
+            recentWrites.recordWrite(id);
+            eventPublisher.publishEvent(new StudentChangedEvent(StudentChangedEvent.Type.UPDATED, id, null));
+            return changes.getVersion() + 1;
+        }
+        // Nothing updated, only now is it worth finding out why
+        if(!studentExists(id)){
+            throw new ResponseStatusException(HttpStatus.NOT_FOUND, "Could not find and update student by id " + id);
+        }
+        throw new ResponseStatusException(HttpStatus.CONFLICT, "Student by id " + id + " was updated by someone else, reload and try again");
+    }
+    // Without it there is nothing to guard the update with, and guessing 0 would overwrite or conflict at random
+    private static void requireVersion(Student student){
+        if(student.getVersion() == null)
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Version is required, send the version of the student you last read");
     }
 
+    @Transactional(readOnly = true)
     public Student getStudentById(int id) {
-        return studentRepository.findById(id).orElseThrow(()->new ResponseStatusException(HttpStatus.NOT_FOUND, "Could not find student by id " + id));
+        // A replica might not have caught up with a student that was just written
+        Supplier<Optional<Student>> findStudent = () -> findStudent(id);
+        Optional<Student> student = recentWrites.isRecent(id) ? DataSourceRouting.onPrimary(findStudent) : findStudent.get();
+        return student.orElseThrow(()->new ResponseStatusException(HttpStatus.NOT_FOUND, "Could not find student by id " + id));
     }
 
+    // Students in id order, a page at a time
+    @Transactional(readOnly = true)
+    public List<Student> getStudentsPage(int page, int size) {
+        if(page < 0 || size < 1 || size > 100)
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Page should be at least 0 and size 1 - 100");
+        if(studentShards.getNumberOfShards() == 1)
+            return studentRepository.findAll(PageRequest.of(page, size, Sort.by("id"))).getContent();
+        // Any shard could hold the whole page, so every shard gives its first (page + 1) * size
+        PageRequest upToPage = PageRequest.of(0, (page + 1) * size, Sort.by("id"));
+        return studentShards.onAllShards(() -> studentRepository.findAll(upToPage).getContent()).stream()
+                .flatMap(List::stream)
+                .sorted(Comparator.comparingInt(Student::getId))
+                .skip((long) page * size)
+                .limit(size)
+                .toList();
+    }
+    // In the order of ids, ids without a student are left out
+    @Transactional(readOnly = true)
+    public List<Student> getStudentsByIds(List<Integer> ids) {
+        if(ids.isEmpty())
+            return List.of();
+        Map<Integer, Student> studentsById = new HashMap<>();
+        studentShards.onAllShards(() -> studentRepository.findAllById(ids))
+                .forEach(students -> students.forEach(student -> studentsById.put(student.getId(), student)));
+        return ids.stream().map(studentsById::get).filter(Objects::nonNull).toList();
+    }
+
+    // One UPDATE like PUT and PATCH, never a merge of a student read earlier that a concurrent write could have made stale
     public Student setGradeForStudentById(int studentId, String gradeAsString) {
+        double grade = parseGrade(gradeAsString);
+        int affectedRows = studentShards.onShardsForId(studentId, () -> studentRepository.setGrade(studentId, grade)).stream()
+                .mapToInt(Integer::intValue)
+                .sum();
+        if(affectedRows == 0){
+            throw new ResponseStatusException(HttpStatus.NOT_FOUND, "Could not find and update grades for student by id " + studentId);
+        }
+        recentWrites.recordWrite(studentId);
+        Student gradedStudent = findStudent(studentId).orElseThrow(() ->
+                new ResponseStatusException(HttpStatus.NOT_FOUND, "Could not find and update grades for student by id " + studentId)
+        );
+        eventPublisher.publishEvent(new StudentChangedEvent(StudentChangedEvent.Type.GRADE_SET, studentId, gradedStudent));
+        return gradedStudent;
+    }
+    static double parseGrade(String gradeAsString){
         double grade;
         try {
             grade = Double.parseDouble(gradeAsString);
@@ -55,10 +318,67 @@ public class StudentService {
         }
         if(grade < 0 || grade > 5)
             throw new ResponseStatusException(HttpStatus.NOT_ACCEPTABLE, "Valid grades are 0.0 - 5.0");
-        Student student = studentRepository.findById(studentId).orElseThrow(() ->
-                new ResponseStatusException(HttpStatus.NOT_FOUND, "Could not find and update grades for student by id " + studentId)
-        );
-        student.setJavaProgrammingGrade(grade);
-        return studentRepository.save(student);
+        return grade;
+    }
+    // The shard holding the student, empty when it is on none of them
+    OptionalInt shardOf(int id){
+        OptionalInt shard = studentShards.getStrategy().shardForId(id);
+        if(shard.isPresent() || studentShards.getNumberOfShards() == 1)
+            return shard.isPresent() ? shard : OptionalInt.of(0);
+        int shardHoldingStudent = studentShards.onAllShards(() -> studentRepository.existsById(id)).indexOf(true);
+        return shardHoldingStudent < 0 ? OptionalInt.empty() : OptionalInt.of(shardHoldingStudent);
+    }
+
+    // One shard's students best grade first, graded ones by grade and then the ungraded ones by id
+    private class GradeCursor {
+        private final int shard;
+        private final int pageSize;
+        private List<Student> page = List.of();
+        private int position;
+        private boolean graded = true;
+        private boolean exhausted;
+        private double lastGrade = Double.MAX_VALUE;
+        private int lastId;
+
+        private GradeCursor(int shard, int pageSize){
+            this.shard = shard;
+            this.pageSize = pageSize;
+        }
+
+        private boolean hasNext(){
+            while(position == page.size() && !exhausted)
+                fetch();
+            return position < page.size();
+        }
+
+        private Student peek(){
+            return page.get(position);
+        }
+
+        private Student next(){
+            return page.get(position++);
+        }
+
+        private void fetch(){
+            position = 0;
+            int afterId = lastId;
+            if(graded){
+                double afterGrade = lastGrade;
+                page = studentShards.onShard(shard, () -> studentRepository.findGradedAfter(afterGrade, afterId, PageRequest.of(0, pageSize)));
+                if(page.size() < pageSize){
+                    graded = false;
+                    lastId = 0;
+                    return;
+                }
+                lastGrade = page.get(page.size() - 1).getJavaProgrammingGrade();
+            } else {
+                page = studentShards.onShard(shard, () -> studentRepository.findByJavaProgrammingGradeIsNullAndIdGreaterThanOrderById(afterId, Limit.of(pageSize)));
+                if(page.size() < pageSize){
+                    exhausted = true;
+                    return;
+                }
+            }
+            lastId = page.get(page.size() - 1).getId();
+        }
     }
 }
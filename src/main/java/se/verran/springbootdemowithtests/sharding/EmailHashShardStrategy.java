@@ -0,0 +1,25 @@
+package se.verran.springbootdemowithtests.sharding;
+
+import se.verran.springbootdemowithtests.entities.Student;
+
+import java.util.OptionalInt;
+
+// Places new students by a hash of their email. Ids say nothing about the shard, so lookups by id
+// are answered by all shards
+public class EmailHashShardStrategy implements ShardStrategy {
+    private final int numberOfShards;
+
+    public EmailHashShardStrategy(int numberOfShards) {
+        this.numberOfShards = numberOfShards;
+    }
+
+    @Override
+    public int shardForNewStudent(Student student) {
+        return Math.floorMod(student.getEmail().toLowerCase().hashCode(), numberOfShards);
+    }
+
+    @Override
+    public OptionalInt shardForId(int id) {
+        return OptionalInt.empty();
+    }
+}
@@ -0,0 +1,32 @@
+package se.verran.springbootdemowithtests.sharding;
+
+import se.verran.springbootdemowithtests.entities.Student;
+
+import java.util.OptionalInt;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Shard i owns ids i * rangeSize + 1 to (i + 1) * rangeSize, so the student table on each shard
+// has to start its auto increment at the beginning of its range. New students are spread round robin
+public class IdRangeShardStrategy implements ShardStrategy {
+    private final int numberOfShards;
+    private final int rangeSize;
+    private final AtomicInteger nextShard = new AtomicInteger();
+
+    public IdRangeShardStrategy(int numberOfShards, int rangeSize) {
+        this.numberOfShards = numberOfShards;
+        this.rangeSize = rangeSize;
+    }
+
+    @Override
+    public int shardForNewStudent(Student student) {
+        return Math.floorMod(nextShard.getAndIncrement(), numberOfShards);
+    }
+
+    @Override
+    public OptionalInt shardForId(int id) {
+        int shard = (id - 1) / rangeSize;
+        if (id < 1 || shard >= numberOfShards)
+            return OptionalInt.empty();
+        return OptionalInt.of(shard);
+    }
+}
@@ -0,0 +1,22 @@
+package se.verran.springbootdemowithtests.sharding;
+
+// The shard the current thread talks to, read by ShardRoutingDataSource
+final class ShardContext {
+    private static final ThreadLocal<Integer> CURRENT_SHARD = new ThreadLocal<>();
+
+    private ShardContext() {
+    }
+
+    static Integer currentShard() {
+        return CURRENT_SHARD.get();
+    }
+
+    static Integer switchTo(Integer shard) {
+        Integer previous = CURRENT_SHARD.get();
+        if (shard == null)
+            CURRENT_SHARD.remove();
+        else
+            CURRENT_SHARD.set(shard);
+        return previous;
+    }
+}
@@ -0,0 +1,32 @@
+package se.verran.springbootdemowithtests.sharding;
+
+import org.springframework.jdbc.datasource.lookup.AbstractRoutingDataSource;
+
+import javax.sql.DataSource;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// Hands out connections to the shard selected in ShardContext, shard 0 when none is selected
+public class ShardRoutingDataSource extends AbstractRoutingDataSource implements AutoCloseable {
+
+    public ShardRoutingDataSource(List<DataSource> shards) {
+        Map<Object, Object> targetDataSources = new HashMap<>();
+        for (int i = 0; i < shards.size(); i++)
+            targetDataSources.put(i, shards.get(i));
+        setTargetDataSources(targetDataSources);
+        setDefaultTargetDataSource(shards.get(0));
+    }
+
+    @Override
+    protected Object determineCurrentLookupKey() {
+        return ShardContext.currentShard();
+    }
+
+    @Override
+    public void close() throws Exception {
+        for (DataSource dataSource : getResolvedDataSources().values())
+            if (dataSource instanceof AutoCloseable closeable)
+                closeable.close();
+    }
+}
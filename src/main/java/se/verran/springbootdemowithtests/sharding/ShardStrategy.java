@@ -0,0 +1,13 @@
+package se.verran.springbootdemowithtests.sharding;
+
+import se.verran.springbootdemowithtests.entities.Student;
+
+import java.util.OptionalInt;
+
+// Decides which shard a student lives on. An empty shard means the caller has to ask every shard
+public interface ShardStrategy {
+
+    int shardForNewStudent(Student student);
+
+    OptionalInt shardForId(int id);
+}
@@ -0,0 +1,58 @@
+package se.verran.springbootdemowithtests.sharding;
+
+import com.zaxxer.hikari.HikariDataSource;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.boot.jdbc.DataSourceBuilder;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
+import org.springframework.jdbc.datasource.LazyConnectionDataSourceProxy;
+
+import javax.sql.DataSource;
+import java.util.ArrayList;
+import java.util.List;
+
+// Not to be combined with student.datasource.routing, both want to own the primary DataSource
+@Configuration
+@EnableConfigurationProperties(ShardingProperties.class)
+public class ShardingConfig {
+
+    @Bean
+    public StudentShards studentShards(ShardingProperties properties) {
+        if (!properties.isEnabled())
+            return StudentShards.single();
+        int numberOfShards = properties.getShards().size();
+        ShardStrategy strategy = switch (properties.getStrategy()) {
+            case "id-range" -> new IdRangeShardStrategy(numberOfShards, properties.getIdRangeSize());
+            case "email-hash" -> new EmailHashShardStrategy(numberOfShards);
+            default -> throw new IllegalArgumentException("Unknown sharding strategy " + properties.getStrategy());
+        };
+        return new StudentShards(numberOfShards, properties.getMaxPoolSize(), strategy);
+    }
+
+    @Bean
+    @ConditionalOnProperty(name = "student.sharding.enabled", havingValue = "true")
+    public ShardRoutingDataSource shardRoutingDataSource(ShardingProperties properties) {
+        List<DataSource> shards = new ArrayList<>();
+        for (ShardingProperties.Shard shard : properties.getShards()) {
+            HikariDataSource dataSource = DataSourceBuilder.create()
+                    .type(HikariDataSource.class)
+                    .url(shard.getUrl())
+                    .username(shard.getUsername())
+                    .password(shard.getPassword())
+                    .build();
+            dataSource.setMaximumPoolSize(properties.getMaxPoolSize());
+            shards.add(dataSource);
+        }
+        return new ShardRoutingDataSource(shards);
+    }
+
+    // Lazy, so a transaction gets its connection from the shard selected when it runs its first statement
+    @Bean
+    @Primary
+    @ConditionalOnProperty(name = "student.sharding.enabled", havingValue = "true")
+    public DataSource dataSource(ShardRoutingDataSource shardRoutingDataSource) {
+        return new LazyConnectionDataSourceProxy(shardRoutingDataSource);
+    }
+}
@@ -0,0 +1,123 @@
+package se.verran.springbootdemowithtests.sharding;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.OptionalInt;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BinaryOperator;
+import java.util.function.Supplier;
+
+// Runs repository work on one shard or on all shards in parallel. With a single shard everything
+// runs directly on the calling thread, which is how the service behaves when sharding is off.
+// The pool has a thread for every connection the shards have, more threads would only wait for a
+// connection and fewer would leave connections idle while fan-outs of other requests wait
+public class StudentShards implements AutoCloseable {
+    // Hikari's default pool size
+    private static final int DEFAULT_CONNECTIONS_PER_SHARD = 10;
+
+    private final int numberOfShards;
+    private final ShardStrategy strategy;
+    private final ThreadPoolExecutor executor;
+
+    public StudentShards(int numberOfShards, ShardStrategy strategy) {
+        this(numberOfShards, DEFAULT_CONNECTIONS_PER_SHARD, strategy);
+    }
+
+    public StudentShards(int numberOfShards, int connectionsPerShard, ShardStrategy strategy) {
+        this.numberOfShards = numberOfShards;
+        this.strategy = strategy;
+        if (numberOfShards > 1) {
+            int threads = numberOfShards * connectionsPerShard;
+            AtomicInteger threadNumber = new AtomicInteger();
+            this.executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), runnable -> {
+                Thread thread = new Thread(runnable, "student-shard-query-" + threadNumber.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+            this.executor.allowCoreThreadTimeOut(true);
+        } else {
+            this.executor = null;
+        }
+    }
+
+    public static StudentShards single() {
+        return new StudentShards(1, new IdRangeShardStrategy(1, Integer.MAX_VALUE));
+    }
+
+    public ShardStrategy getStrategy() {
+        return strategy;
+    }
+
+    public int getNumberOfShards() {
+        return numberOfShards;
+    }
+
+    public <T> T onShard(int shard, Supplier<T> work) {
+        if (numberOfShards == 1)
+            return work.get();
+        Integer previous = ShardContext.switchTo(shard);
+        try {
+            return work.get();
+        } finally {
+            ShardContext.switchTo(previous);
+        }
+    }
+
+    // Scatter/gather, one result per shard in shard order. Work already running on a shard can't fan
+    // out again, its tasks could end up queued behind the very tasks waiting for them
+    public <T> List<T> onAllShards(Supplier<T> work) {
+        if (numberOfShards == 1)
+            return Collections.singletonList(work.get());
+        if (ShardContext.currentShard() != null)
+            throw new IllegalStateException("Work on shard " + ShardContext.currentShard() + " can't run work on all shards");
+        List<CompletableFuture<T>> futures = new ArrayList<>();
+        for (int shard = 0; shard < numberOfShards; shard++) {
+            int currentShard = shard;
+            futures.add(CompletableFuture.supplyAsync(() -> onShard(currentShard, work), executor));
+        }
+        List<T> results = new ArrayList<>();
+        try {
+            for (CompletableFuture<T> future : futures)
+                results.add(future.join());
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException cause)
+                throw cause;
+            throw e;
+        }
+        return results;
+    }
+
+    // Scatter/gather where every shard gives a partial result, like a count or a sum, merged into one
+    public <T> T onAllShards(Supplier<T> work, BinaryOperator<T> merge) {
+        return onAllShards(work).stream().reduce(merge).orElseThrow();
+    }
+
+    // Every shard gives its own first limit in order, the overall first limit are among those
+    public <T> List<T> firstOnAllShards(Supplier<List<T>> work, Comparator<? super T> order, int limit) {
+        List<List<T>> perShard = onAllShards(work);
+        if (perShard.size() == 1)
+            return perShard.get(0);
+        return perShard.stream().flatMap(List::stream).sorted(order).limit(limit).toList();
+    }
+
+    // The one shard that holds the student when the strategy knows it, otherwise all of them
+    public <T> List<T> onShardsForId(int id, Supplier<T> work) {
+        OptionalInt shard = strategy.shardForId(id);
+        if (shard.isPresent())
+            return Collections.singletonList(onShard(shard.getAsInt(), work));
+        return onAllShards(work);
+    }
+
+    @Override
+    public void close() {
+        if (executor != null)
+            executor.shutdown();
+    }
+}
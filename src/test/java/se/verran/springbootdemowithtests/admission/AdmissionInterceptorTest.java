@@ -0,0 +1,163 @@
+package se.verran.springbootdemowithtests.admission;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.web.method.HandlerMethod;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class AdmissionInterceptorTest {
+
+    private AdmissionInterceptor admissionInterceptor;
+    private AtomicLong nanoClock;
+    private HandlerMethod pointHandler;
+    private HandlerMethod scanHandler;
+    private HandlerMethod searchHandler;
+
+    // Står i för en controller med en billig och en tung endpoint
+    static class Endpoints {
+        public void point() {
+        }
+
+        @EndpointCost(EndpointCost.Cost.SCAN)
+        public void scan() {
+        }
+
+        @EndpointCost(EndpointCost.Cost.SEARCH)
+        public void search() {
+        }
+    }
+
+    @BeforeEach
+    void setUp() throws NoSuchMethodException {
+        AdmissionProperties properties = new AdmissionProperties();
+        properties.setPoint(new AdmissionProperties.Limit(2, 1));
+        properties.setScan(new AdmissionProperties.Limit(10, 1));
+        properties.setSearch(new AdmissionProperties.Limit(1, 1));
+        properties.setMaxConcurrentScans(1);
+        nanoClock = new AtomicLong();
+        admissionInterceptor = new AdmissionInterceptor(properties, nanoClock::get);
+        Endpoints endpoints = new Endpoints();
+        pointHandler = new HandlerMethod(endpoints, Endpoints.class.getMethod("point"));
+        scanHandler = new HandlerMethod(endpoints, Endpoints.class.getMethod("scan"));
+        searchHandler = new HandlerMethod(endpoints, Endpoints.class.getMethod("search"));
+    }
+
+    private MockHttpServletRequest requestFrom(String address) {
+        MockHttpServletRequest request = new MockHttpServletRequest();
+        request.setRemoteAddr(address);
+        return request;
+    }
+
+    @Test
+    void clientOverItsBucketShouldGetTooManyRequestsWithRetryAfter() {
+        // Given
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        admissionInterceptor.preHandle(requestFrom("10.0.0.1"), response, pointHandler);
+        admissionInterceptor.preHandle(requestFrom("10.0.0.1"), response, pointHandler);
+
+        // When & Then
+        assertThatThrownBy(() -> admissionInterceptor.preHandle(requestFrom("10.0.0.1"), response, pointHandler))
+                .isInstanceOf(ResponseStatusException.class)
+                .hasMessageContaining("429 TOO_MANY_REQUESTS");
+        assertThat(response.getHeader("Retry-After")).isEqualTo("1");
+    }
+
+    @Test
+    void otherClientsShouldNotBeAffected() {
+        // Given
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        admissionInterceptor.preHandle(requestFrom("10.0.0.1"), response, pointHandler);
+        admissionInterceptor.preHandle(requestFrom("10.0.0.1"), response, pointHandler);
+
+        // When
+        boolean admitted = admissionInterceptor.preHandle(requestFrom("10.0.0.2"), response, pointHandler);
+
+        // Then
+        assertThat(admitted).isTrue();
+    }
+
+    @Test
+    void bucketShouldRefillOverTime() {
+        // Given
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        admissionInterceptor.preHandle(requestFrom("10.0.0.1"), response, pointHandler);
+        admissionInterceptor.preHandle(requestFrom("10.0.0.1"), response, pointHandler);
+
+        // When
+        nanoClock.addAndGet(TimeUnit.SECONDS.toNanos(1));
+
+        // Then
+        assertThat(admissionInterceptor.preHandle(requestFrom("10.0.0.1"), response, pointHandler)).isTrue();
+    }
+
+    @Test
+    void scanShouldBeRejectedWhileAnotherScanIsRunning() {
+        // Given
+        MockHttpServletRequest runningScan = requestFrom("10.0.0.1");
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        admissionInterceptor.preHandle(runningScan, response, scanHandler);
+
+        // When & Then
+        assertThatThrownBy(() -> admissionInterceptor.preHandle(requestFrom("10.0.0.2"), response, scanHandler))
+                .isInstanceOf(ResponseStatusException.class)
+                .hasMessageContaining("Too many heavy requests running");
+        assertThat(admissionInterceptor.preHandle(requestFrom("10.0.0.2"), response, pointHandler)).isTrue();
+
+        admissionInterceptor.afterCompletion(runningScan, response, scanHandler, null);
+        assertThat(admissionInterceptor.preHandle(requestFrom("10.0.0.2"), response, scanHandler)).isTrue();
+    }
+
+    @Test
+    void scanRejectedForConcurrencyShouldNotCostAToken() {
+        // Given
+        MockHttpServletRequest runningScan = requestFrom("10.0.0.1");
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        admissionInterceptor.preHandle(runningScan, response, scanHandler);
+        for (int attempt = 0; attempt < 20; attempt++)
+            assertThatThrownBy(() -> admissionInterceptor.preHandle(requestFrom("10.0.0.2"), response, scanHandler))
+                    .hasMessageContaining("Too many heavy requests running");
+
+        // When
+        admissionInterceptor.afterCompletion(runningScan, response, scanHandler, null);
+
+        // Then
+        assertThat(admissionInterceptor.preHandle(requestFrom("10.0.0.2"), response, scanHandler)).isTrue();
+    }
+
+    @Test
+    void scanRejectedByItsBucketShouldGiveBackThePermit() {
+        // Given
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        for (int scan = 0; scan < 10; scan++) {
+            MockHttpServletRequest request = requestFrom("10.0.0.1");
+            admissionInterceptor.preHandle(request, response, scanHandler);
+            admissionInterceptor.afterCompletion(request, response, scanHandler, null);
+        }
+        assertThatThrownBy(() -> admissionInterceptor.preHandle(requestFrom("10.0.0.1"), response, scanHandler))
+                .hasMessageContaining("Too many scan requests");
+
+        // When & Then
+        assertThat(admissionInterceptor.preHandle(requestFrom("10.0.0.2"), response, scanHandler)).isTrue();
+    }
+
+    @Test
+    void searchShouldHaveItsOwnBucket() {
+        // Given
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        admissionInterceptor.preHandle(requestFrom("10.0.0.1"), response, searchHandler);
+
+        // When & Then
+        assertThatThrownBy(() -> admissionInterceptor.preHandle(requestFrom("10.0.0.1"), response, searchHandler))
+                .isInstanceOf(ResponseStatusException.class)
+                .hasMessageContaining("Too many search requests");
+        assertThat(admissionInterceptor.preHandle(requestFrom("10.0.0.1"), response, pointHandler)).isTrue();
+    }
+}
@@ -0,0 +1,92 @@
+package se.verran.springbootdemowithtests.datasource;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.embedded.EmbeddedDatabase;
+import org.springframework.jdbc.datasource.embedded.EmbeddedDatabaseBuilder;
+import org.springframework.jdbc.datasource.embedded.EmbeddedDatabaseType;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.sql.Connection;
+import java.time.Duration;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ReplicaRoutingDataSourceTest {
+
+    private EmbeddedDatabase primary;
+    private EmbeddedDatabase replica;
+    private ReplicaRoutingDataSource routingDataSource;
+
+    @BeforeEach
+    void setUp() {
+        // Två inbäddade H2-databaser som primär och replika
+        primary = new EmbeddedDatabaseBuilder().setType(EmbeddedDatabaseType.H2).setName("primary").build();
+        replica = new EmbeddedDatabaseBuilder().setType(EmbeddedDatabaseType.H2).setName("replica").build();
+        new JdbcTemplate(replica).execute("create table replication_lag(seconds int)");
+        new JdbcTemplate(replica).execute("insert into replication_lag values (0)");
+        routingDataSource = new ReplicaRoutingDataSource(primary, Map.of("replica-0", replica));
+        routingDataSource.afterPropertiesSet();
+    }
+
+    @AfterEach
+    void tearDown() {
+        TransactionSynchronizationManager.setCurrentTransactionReadOnly(false);
+        primary.shutdown();
+        replica.shutdown();
+    }
+
+    private String connectedDatabase() throws Exception {
+        try (Connection connection = routingDataSource.getConnection()) {
+            return connection.getMetaData().getURL();
+        }
+    }
+
+    @Test
+    void writesShouldGoToPrimary() throws Exception {
+        assertThat(connectedDatabase()).contains("primary");
+    }
+
+    @Test
+    void readOnlyTransactionsShouldGoToReplica() throws Exception {
+        TransactionSynchronizationManager.setCurrentTransactionReadOnly(true);
+
+        assertThat(connectedDatabase()).contains("replica");
+    }
+
+    @Test
+    void readOnlyTransactionShouldGoToPrimaryWhenPrimaryIsRequired() throws Exception {
+        TransactionSynchronizationManager.setCurrentTransactionReadOnly(true);
+
+        String url = DataSourceRouting.onPrimary(() -> {
+            try {
+                return connectedDatabase();
+            } catch (Exception e) {
+                throw new IllegalStateException(e);
+            }
+        });
+
+        assertThat(url).contains("primary");
+    }
+
+    @Test
+    void laggingReplicaShouldBeTakenOutOfRotation() throws Exception {
+        ReplicaHealthChecker healthChecker = new ReplicaHealthChecker(routingDataSource, "select seconds from replication_lag", Duration.ofSeconds(10));
+        new JdbcTemplate(replica).update("update replication_lag set seconds = 60");
+        TransactionSynchronizationManager.setCurrentTransactionReadOnly(true);
+
+        healthChecker.checkReplicas();
+
+        assertThat(routingDataSource.isHealthy("replica-0")).isFalse();
+        assertThat(connectedDatabase()).contains("primary");
+
+        new JdbcTemplate(replica).update("update replication_lag set seconds = 1");
+        healthChecker.checkReplicas();
+
+        assertThat(routingDataSource.isHealthy("replica-0")).isTrue();
+        assertThat(connectedDatabase()).contains("replica");
+    }
+}
@@ -0,0 +1,101 @@
+package se.verran.springbootdemowithtests.datasource;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabase;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.context.TestPropertySource;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+import se.verran.springbootdemowithtests.entities.Student;
+import se.verran.springbootdemowithtests.services.StudentService;
+import se.verran.springbootdemowithtests.sharding.ShardingConfig;
+
+import java.time.LocalDate;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+// StudentService through its transactional proxy against an H2 primary and an H2 replica,
+// so the routing follows the read only flag that @Transactional sets and nothing is set by hand
+@DataJpaTest
+@Import({RoutingDataSourceConfig.class, ShardingConfig.class, RecentWrites.class, StudentService.class})
+@AutoConfigureTestDatabase(replace = AutoConfigureTestDatabase.Replace.NONE)
+@Transactional(propagation = Propagation.NOT_SUPPORTED)
+@DirtiesContext(classMode = DirtiesContext.ClassMode.AFTER_EACH_TEST_METHOD)
+@TestPropertySource(properties = {
+        "spring.datasource.url=jdbc:h2:mem:routingprimary",
+        "spring.datasource.username=sa",
+        "spring.datasource.driver-class-name=org.h2.Driver",
+        "student.datasource.routing.enabled=true",
+        "student.datasource.routing.replicas[0].url=jdbc:h2:mem:routingreplica",
+        "student.datasource.routing.replicas[0].username=sa"
+})
+class ReplicaRoutingServiceTest {
+
+    @Autowired
+    StudentService studentService;
+    @Autowired
+    ReplicaRoutingDataSource routingDataSource;
+
+    private JdbcTemplate primary;
+    private JdbcTemplate replica;
+
+    @BeforeEach
+    void setUp() {
+        // Hibernate skapar bara schemat i primären, kopiera det till replikan
+        primary = new JdbcTemplate(routingDataSource.getResolvedDefaultDataSource());
+        replica = new JdbcTemplate(routingDataSource.getReplicas().get("replica-0"));
+        primary.queryForList("script nodata", String.class).stream()
+                .filter(statement -> statement.startsWith("CREATE") || statement.startsWith("ALTER"))
+                .filter(statement -> !statement.startsWith("CREATE USER"))
+                .forEach(replica::execute);
+        // Olika studenter i primären och replikan, så svaret visar vilken databas som lästes
+        insertStudent(primary, "primary@example.com");
+        insertStudent(replica, "replica@example.com");
+    }
+
+    private void insertStudent(JdbcTemplate database, String email) {
+        database.update("insert into student (first_name, last_name, birth_date, email, version, deleted, modified_at) "
+                + "values ('Rickard', 'Ekstedt', date '1981-03-02', ?, 0, false, current_timestamp)", email);
+    }
+
+    private static List<String> emailsOf(List<Student> students) {
+        return students.stream().map(Student::getEmail).toList();
+    }
+
+    @Test
+    void readOnlyServiceMethodShouldReadFromReplica() {
+        // When
+        List<Student> students = studentService.getAllStudents();
+
+        // Then
+        assertThat(emailsOf(students)).containsExactly("replica@example.com");
+    }
+
+    @Test
+    void writesShouldGoToPrimary() {
+        // When
+        studentService.addStudent(new Student("Anna", "Svensson", LocalDate.of(1990, 1, 1), "anna@example.com"));
+
+        // Then
+        assertThat(primary.queryForObject("select count(*) from student where email = 'anna@example.com'", Integer.class)).isEqualTo(1);
+        assertThat(replica.queryForObject("select count(*) from student where email = 'anna@example.com'", Integer.class)).isZero();
+    }
+
+    @Test
+    void studentJustWrittenShouldBeReadFromPrimary() {
+        // Given
+        Student added = studentService.addStudent(new Student("Anna", "Svensson", LocalDate.of(1990, 1, 1), "anna@example.com"));
+
+        // When
+        Student student = studentService.getStudentById(added.getId());
+
+        // Then
+        assertThat(student.getEmail()).isEqualTo("anna@example.com");
+    }
+}
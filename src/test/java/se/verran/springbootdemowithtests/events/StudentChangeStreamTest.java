@@ -0,0 +1,145 @@
+package se.verran.springbootdemowithtests.events;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class StudentChangeStreamTest {
+    private static final long EPOCH = 1_700_000_000_000L;
+
+    private StudentChangeStream studentChangeStream;
+
+    // Samlar det som skickas, som en SSE-klient skulle göra
+    static class CollectingSink implements StudentChangeStream.ChangeSink {
+        final List<StudentChange> received = new ArrayList<>();
+        boolean closed;
+
+        @Override
+        public void send(StudentChange change) {
+            received.add(change);
+        }
+
+        @Override
+        public void close() {
+            closed = true;
+        }
+
+        List<Long> sequences() {
+            return received.stream().map(StudentChange::getSequence).toList();
+        }
+    }
+
+    @BeforeEach
+    void setUp() {
+        studentChangeStream = new StudentChangeStream(4, 2, 0, Runnable::run, EPOCH);
+    }
+
+    private void publish(int studentId) {
+        studentChangeStream.onStudentChanged(new StudentChangedEvent(StudentChangedEvent.Type.UPDATED, studentId, null));
+    }
+
+    @Test
+    void newSubscriberShouldOnlyGetChangesFromNowOn() {
+        publish(1);
+        CollectingSink sink = new CollectingSink();
+        studentChangeStream.subscribe(null, sink);
+
+        publish(2);
+
+        assertThat(sink.sequences()).containsExactly(2L);
+        assertThat(sink.received.get(0).getType()).isEqualTo("UPDATED");
+        assertThat(sink.received.get(0).getStudentId()).isEqualTo(2);
+    }
+
+    @Test
+    void courseGradesShouldBeStreamedWithCourseAndGrade() {
+        CollectingSink sink = new CollectingSink();
+        studentChangeStream.subscribe(null, sink);
+
+        studentChangeStream.onStudentChanged(new StudentChangedEvent(1, "JAVA1", 4.5));
+        publish(2);
+
+        assertThat(sink.sequences()).containsExactly(1L, 2L);
+        StudentChange courseGrade = sink.received.get(0);
+        assertThat(courseGrade.getType()).isEqualTo("COURSE_GRADE_SET");
+        assertThat(courseGrade.getStudentId()).isEqualTo(1);
+        assertThat(courseGrade.getCourseCode()).isEqualTo("JAVA1");
+        assertThat(courseGrade.getCourseGrade()).isEqualTo(4.5);
+        assertThat(sink.received.get(1).getCourseCode()).isNull();
+    }
+
+    @Test
+    void resumingSubscriberShouldGetMissedChangesReplayedFirst() {
+        publish(1);
+        publish(2);
+        publish(3);
+        CollectingSink sink = new CollectingSink();
+        studentChangeStream.subscribe(EPOCH + "-1", sink);
+
+        publish(4);
+
+        assertThat(sink.sequences()).containsExactly(2L, 3L, 4L);
+        assertThat(sink.received.get(2).getId()).isEqualTo(EPOCH + "-4");
+    }
+
+    @Test
+    void subscriberBehindTheBufferShouldGetReset() {
+        for (int i = 1; i <= 6; i++)
+            publish(i);
+        CollectingSink sink = new CollectingSink();
+        studentChangeStream.subscribe(EPOCH + "-1", sink);
+
+        assertThat(sink.received).hasSize(1);
+        assertThat(sink.received.get(0).getType()).isEqualTo(StudentChange.RESET);
+        assertThat(sink.received.get(0).getSequence()).isEqualTo(6L);
+    }
+
+    @Test
+    void subscriberFromBeforeARestartShouldGetReset() {
+        // Samma sekvensnummer, men från en tidigare instans
+        publish(1);
+        publish(2);
+        CollectingSink sink = new CollectingSink();
+        studentChangeStream.subscribe((EPOCH - 60_000) + "-1", sink);
+
+        publish(3);
+
+        assertThat(sink.received.get(0).getType()).isEqualTo(StudentChange.RESET);
+        assertThat(sink.received.get(0).getId()).isEqualTo(EPOCH + "-2");
+        assertThat(sink.sequences()).containsExactly(2L, 3L);
+    }
+
+    @Test
+    void unknownLastEventIdShouldGetReset() {
+        publish(1);
+        CollectingSink sink = new CollectingSink();
+        studentChangeStream.subscribe("1", sink);
+
+        assertThat(sink.received).hasSize(1);
+        assertThat(sink.received.get(0).getType()).isEqualTo(StudentChange.RESET);
+    }
+
+    @Test
+    void failingSubscriberShouldBeDisconnectedWithoutAffectingOthers() {
+        CollectingSink healthySink = new CollectingSink();
+        CollectingSink brokenSink = new CollectingSink() {
+            @Override
+            public void send(StudentChange change) {
+                throw new IllegalStateException("Connection reset");
+            }
+        };
+        studentChangeStream.subscribe(null, healthySink);
+        studentChangeStream.subscribe(null, brokenSink);
+
+        publish(1);
+        publish(2);
+
+        assertThat(brokenSink.closed).isTrue();
+        assertThat(healthySink.sequences()).containsExactly(1L, 2L);
+        assertThat(studentChangeStream.subscriberCount()).isEqualTo(1);
+    }
+}
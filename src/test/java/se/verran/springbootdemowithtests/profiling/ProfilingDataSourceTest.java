@@ -0,0 +1,101 @@
+package se.verran.springbootdemowithtests.profiling;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.embedded.EmbeddedDatabase;
+import org.springframework.jdbc.datasource.embedded.EmbeddedDatabaseBuilder;
+import org.springframework.jdbc.datasource.embedded.EmbeddedDatabaseType;
+
+import java.time.Duration;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ProfilingDataSourceTest {
+
+    private EmbeddedDatabase database;
+    private SimpleMeterRegistry meterRegistry;
+    private JdbcProfiler profiler;
+    private JdbcTemplate jdbcTemplate;
+
+    @BeforeEach
+    void setUp() {
+        // Inbäddad H2-databas med tre studenter
+        database = new EmbeddedDatabaseBuilder().setType(EmbeddedDatabaseType.H2).setName("profiling").build();
+        new JdbcTemplate(database).execute("create table student(id int primary key, first_name varchar(50))");
+        new JdbcTemplate(database).execute("insert into student values (1, 'Anna'), (2, 'Bertil'), (3, 'Cecilia')");
+        meterRegistry = new SimpleMeterRegistry();
+        JdbcProfilerProperties properties = new JdbcProfilerProperties();
+        properties.setRepeatedStatementThreshold(3);
+        properties.setSlowThreshold(Duration.ofMinutes(1));
+        profiler = new JdbcProfiler(properties, meterRegistry);
+        jdbcTemplate = new JdbcTemplate(new ProfilingDataSource(database, profiler));
+    }
+
+    @AfterEach
+    void tearDown() {
+        database.shutdown();
+    }
+
+    @Test
+    void queryShouldRecordLatencyAndRows() {
+        // When
+        jdbcTemplate.queryForList("select first_name from student where id > ?", String.class, 1);
+
+        // Then
+        assertThat(meterRegistry.get("jdbc.statements").tag("operation", "select").tag("endpoint", "none").timer().count()).isEqualTo(1);
+        assertThat(meterRegistry.get("jdbc.statements.rows").tag("operation", "select").summary().totalAmount()).isEqualTo(2);
+    }
+
+    @Test
+    void updateShouldRecordAffectedRows() {
+        // When
+        jdbcTemplate.update("update student set first_name = upper(first_name)");
+
+        // Then
+        assertThat(meterRegistry.get("jdbc.statements.rows").tag("operation", "update").summary().totalAmount()).isEqualTo(3);
+    }
+
+    @Test
+    void unfilteredSelectShouldBeCountedAsFullLoad() {
+        // When
+        profiler.beginRequest("GET /edu/api/v1/student/getstudentbyid/{id}", false);
+        jdbcTemplate.queryForList("select * from student");
+        jdbcTemplate.queryForObject("select count(*) from student", Long.class);
+        profiler.endRequest();
+
+        // Then
+        assertThat(meterRegistry.get("jdbc.statements.full.loads").counter().count()).isEqualTo(1);
+        assertThat(meterRegistry.get("jdbc.request.statements").summary().totalAmount()).isEqualTo(2);
+    }
+
+    @Test
+    void repeatedStatementInRequestShouldBeCounted() {
+        // When
+        profiler.beginRequest("GET /edu/api/v1/school/averagegrade", true);
+        for (int id = 1; id <= 3; id++)
+            jdbcTemplate.queryForObject("select first_name from student where id = ?", String.class, id);
+        profiler.endRequest();
+
+        // Then
+        assertThat(meterRegistry.get("jdbc.request.repeated.statements").tag("endpoint", "GET /edu/api/v1/school/averagegrade").counter().count()).isEqualTo(1);
+    }
+
+    @Test
+    void operationShouldComeFromFirstKeyword() {
+        assertThat(JdbcProfiler.operationOf("  SELECT 1")).isEqualTo("select");
+        assertThat(JdbcProfiler.operationOf("insert into student values (4, 'David')")).isEqualTo("insert");
+        assertThat(JdbcProfiler.operationOf("create table grade(id int)")).isEqualTo("other");
+    }
+
+    @Test
+    void softDeleteRestrictionShouldNotCountAsFilter() {
+        assertThat(JdbcProfiler.isUnfiltered("select s1_0.id,s1_0.email from student s1_0 where (s1_0.deleted = false)")).isTrue();
+        assertThat(JdbcProfiler.isUnfiltered("select s1_0.id from student s1_0 where (s1_0.deleted = false) order by s1_0.id")).isTrue();
+        assertThat(JdbcProfiler.isUnfiltered("select s1_0.id from student s1_0 where s1_0.id=? and (s1_0.deleted = false)")).isFalse();
+        assertThat(JdbcProfiler.isUnfiltered("select s1_0.id from student s1_0 where (s1_0.deleted = false) and s1_0.email=?")).isFalse();
+        assertThat(JdbcProfiler.isUnfiltered("select id from student where deleted = true limit ?")).isFalse();
+    }
+}
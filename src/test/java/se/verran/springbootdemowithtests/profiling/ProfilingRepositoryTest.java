@@ -0,0 +1,77 @@
+package se.verran.springbootdemowithtests.profiling;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.boot.test.context.TestConfiguration;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Import;
+import se.verran.springbootdemowithtests.entities.Student;
+import se.verran.springbootdemowithtests.repositories.StudentRepository;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDate;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+// The statements Hibernate really renders, with the soft delete restriction in every select.
+// The context and its registry are shared between the tests, so they compare against the count before
+@DataJpaTest
+@Import({JdbcProfilerConfig.class, ProfilingRepositoryTest.MetricsConfig.class})
+class ProfilingRepositoryTest {
+
+    @TestConfiguration
+    static class MetricsConfig {
+        @Bean
+        MeterRegistry meterRegistry() {
+            return new SimpleMeterRegistry();
+        }
+    }
+
+    @Autowired
+    StudentRepository studentRepository;
+    @Autowired
+    MeterRegistry meterRegistry;
+
+    private void saveStudent(String email) {
+        studentRepository.save(new Student("Rickard", "Ekstedt", LocalDate.of(1981, 3, 2), email));
+    }
+
+    private double fullLoads() {
+        return meterRegistry.find("jdbc.statements.full.loads").counters().stream().mapToDouble(counter -> counter.count()).sum();
+    }
+
+    @Test
+    void findAllShouldBeFlaggedAsFullLoad() {
+        // Given
+        saveStudent("anna@example.com");
+        saveStudent("bertil@example.com");
+        studentRepository.flush();
+        double fullLoadsBefore = fullLoads();
+
+        // When
+        assertThat(studentRepository.findAll()).hasSize(2);
+
+        // Then
+        assertThat(fullLoads() - fullLoadsBefore).isEqualTo(1);
+    }
+
+    @Test
+    void lookupsShouldNotBeFlaggedAsFullLoad() {
+        // Given
+        saveStudent("anna@example.com");
+        saveStudent("bertil@example.com");
+        studentRepository.flush();
+        double fullLoadsBefore = fullLoads();
+
+        // When
+        studentRepository.existsStudentByEmail("anna@example.com");
+        studentRepository.findByModifiedAtAfter(Instant.now().minus(Duration.ofDays(1)));
+
+        // Then
+        assertThat(fullLoads()).isEqualTo(fullLoadsBefore);
+    }
+}
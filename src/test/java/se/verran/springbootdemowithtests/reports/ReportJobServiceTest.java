@@ -0,0 +1,207 @@
+package se.verran.springbootdemowithtests.reports;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.web.server.ResponseStatusException;
+import se.verran.springbootdemowithtests.entities.Student;
+import se.verran.springbootdemowithtests.services.StudentService;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.Mockito.*;
+
+class ReportJobServiceTest {
+
+    @TempDir
+    Path reportDirectory;
+
+    private ReportJobService reportJobService;
+    private StudentService mockedStudentService;
+
+    @BeforeEach
+    void setUp() {
+        mockedStudentService = mock(StudentService.class);
+        reportJobService = new ReportJobService(mockedStudentService, reportDirectory, 1, 1, Duration.ofHours(1));
+    }
+
+    @AfterEach
+    void tearDown() {
+        reportJobService.close();
+    }
+
+    private Student createStudent(int id, String firstName, Double grade) {
+        Student student = new Student(firstName, "Ekstedt", null, firstName.toLowerCase() + "@example.com");
+        student.setId(id);
+        student.setJavaProgrammingGrade(grade);
+        return student;
+    }
+
+    // Sorterade som databasen lämnar dem, bäst betyg först
+    private void givenStudentsByGrade(Student... students) {
+        when(mockedStudentService.countStudents()).thenReturn((long) students.length);
+        doAnswer(invocation -> {
+            Consumer<List<Student>> consumer = invocation.getArgument(1);
+            consumer.accept(List.of(students));
+            return null;
+        }).when(mockedStudentService).forEachStudentPageByGrade(anyInt(), any());
+    }
+
+    private ReportJob awaitFinished(ReportJob job) throws InterruptedException {
+        for (int i = 0; i < 500 && job.getFinishedAt() == null; i++)
+            Thread.sleep(10);
+        return job;
+    }
+
+    @Test
+    void rankingReportShouldListStudentsByGradeWithUngradedLast() throws Exception {
+        // Given
+        givenStudentsByGrade(
+                createStudent(3, "Cecilia", 4.5),
+                createStudent(1, "Anna", 3.0),
+                createStudent(2, "Bertil", null));
+
+        // When
+        ReportJob job = awaitFinished(reportJobService.submit(ReportType.RANKING, 0));
+
+        // Then
+        assertThat(job.getStatus()).isEqualTo(ReportJob.Status.DONE);
+        assertThat(job.getProgress()).isEqualTo(100);
+        assertThat(Files.readAllLines(reportJobService.getResult(job.getId()))).containsExactly(
+                "rank,id,firstName,lastName,email,grade",
+                "1,3,Cecilia,Ekstedt,cecilia@example.com,4.5",
+                "2,1,Anna,Ekstedt,anna@example.com,3.0",
+                "3,2,Bertil,Ekstedt,bertil@example.com,");
+        verify(mockedStudentService, never()).getAllStudents();
+    }
+
+    @Test
+    void groupsReportShouldBalanceGradesOverGroups() throws Exception {
+        // Given
+        givenStudentsByGrade(
+                createStudent(1, "Anna", 5.0),
+                createStudent(2, "Bertil", 4.0),
+                createStudent(3, "Cecilia", 3.0),
+                createStudent(4, "David", 2.0));
+
+        // When
+        ReportJob job = awaitFinished(reportJobService.submit(ReportType.GROUPS, 2));
+
+        // Then
+        assertThat(Files.readAllLines(reportJobService.getResult(job.getId()))).containsExactly(
+                "group,id,firstName,lastName,grade",
+                "1,1,Anna,Ekstedt,5.0",
+                "2,2,Bertil,Ekstedt,4.0",
+                "2,3,Cecilia,Ekstedt,3.0",
+                "1,4,David,Ekstedt,2.0");
+    }
+
+    @Test
+    void gradeDistributionReportShouldWriteTheCountedBuckets() throws Exception {
+        // Given
+        when(mockedStudentService.getGradeDistribution()).thenReturn(new long[]{0, 0, 0, 0, 0, 0, 1, 0, 2, 3, 4});
+
+        // When
+        ReportJob job = awaitFinished(reportJobService.submit(ReportType.GRADE_DISTRIBUTION, 0));
+
+        // Then
+        assertThat(Files.readAllLines(reportJobService.getResult(job.getId()))).containsExactly(
+                "grade,students",
+                "0.0-0.5,0",
+                "0.5-1.0,0",
+                "1.0-1.5,0",
+                "1.5-2.0,0",
+                "2.0-2.5,0",
+                "2.5-3.0,0",
+                "3.0-3.5,1",
+                "3.5-4.0,0",
+                "4.0-4.5,2",
+                "4.5-5.0,3",
+                "none,4");
+        verify(mockedStudentService, never()).getAllStudents();
+    }
+
+    @Test
+    void resultShouldNotBeAvailableBeforeJobIsDone() throws Exception {
+        // Given
+        CountDownLatch release = new CountDownLatch(1);
+        when(mockedStudentService.getGradeDistribution()).thenAnswer(invocation -> {
+            release.await(5, TimeUnit.SECONDS);
+            return new long[11];
+        });
+        ReportJob job = reportJobService.submit(ReportType.GRADE_DISTRIBUTION, 0);
+
+        // When & Then
+        assertThatThrownBy(() -> reportJobService.getResult(job.getId()))
+                .isInstanceOf(ResponseStatusException.class)
+                .hasMessageContaining("409 CONFLICT");
+        release.countDown();
+        assertThat(awaitFinished(job).getStatus()).isEqualTo(ReportJob.Status.DONE);
+    }
+
+    @Test
+    void cancelledJobShouldNotProduceResult() throws Exception {
+        // Given
+        CountDownLatch started = new CountDownLatch(1);
+        when(mockedStudentService.countStudents()).thenAnswer(invocation -> {
+            started.countDown();
+            Thread.sleep(5000);
+            return 0L;
+        });
+        ReportJob job = reportJobService.submit(ReportType.RANKING, 0);
+        started.await(5, TimeUnit.SECONDS);
+
+        // When
+        reportJobService.cancel(job.getId());
+
+        // Then
+        assertThat(job.getStatus()).isEqualTo(ReportJob.Status.CANCELLED);
+        assertThatThrownBy(() -> reportJobService.getResult(job.getId()))
+                .isInstanceOf(ResponseStatusException.class);
+    }
+
+    @Test
+    void fullQueueShouldBeRejected() throws Exception {
+        // Given
+        CountDownLatch release = new CountDownLatch(1);
+        when(mockedStudentService.countStudents()).thenAnswer(invocation -> {
+            release.await(5, TimeUnit.SECONDS);
+            return 0L;
+        });
+        reportJobService.submit(ReportType.RANKING, 0);
+        reportJobService.submit(ReportType.RANKING, 0);
+
+        // When & Then
+        assertThatThrownBy(() -> reportJobService.submit(ReportType.RANKING, 0))
+                .isInstanceOf(ResponseStatusException.class)
+                .hasMessageContaining("Too many reports queued");
+        release.countDown();
+    }
+
+    @Test
+    void leftoverFilesFromBeforeRestartShouldBeRemoved() throws Exception {
+        // Given
+        Path finished = Files.writeString(reportDirectory.resolve("old-job.csv"), "rank,id");
+        Path unfinished = Files.writeString(reportDirectory.resolve("other-job.csv.part"), "rank,id");
+        Path unrelated = Files.writeString(reportDirectory.resolve("notes.txt"), "keep");
+
+        // When
+        reportJobService.removeLeftoverFiles();
+
+        // Then
+        assertThat(finished).doesNotExist();
+        assertThat(unfinished).doesNotExist();
+        assertThat(unrelated).exists();
+    }
+}
@@ -0,0 +1,115 @@
+package se.verran.springbootdemowithtests.repositories;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.test.annotation.DirtiesContext;
+import se.verran.springbootdemowithtests.entities.Course;
+import se.verran.springbootdemowithtests.entities.Grade;
+import se.verran.springbootdemowithtests.entities.Student;
+
+import java.time.LocalDate;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+@DataJpaTest
+@DirtiesContext(classMode = DirtiesContext.ClassMode.AFTER_EACH_TEST_METHOD)
+
+class GradeRepositoryTest {
+
+    @Autowired
+    GradeRepository gradeRepository;
+    @Autowired
+    CourseRepository courseRepository;
+    @Autowired
+    StudentRepository studentRepository;
+
+    private int javaId;
+    private int databasesId;
+    private List<Integer> studentIds;
+
+    @BeforeEach
+    void setUp() {
+        // Två kurser och fyra studenter, alla betygsatta i java och två i databaser
+        javaId = courseRepository.save(new Course("JAVA1", "Java programming")).getId();
+        databasesId = courseRepository.save(new Course("DB1", "Databases")).getId();
+        studentIds = List.of(saveStudent("anna@example.com"), saveStudent("bertil@example.com"),
+                saveStudent("cecilia@example.com"), saveStudent("david@example.com"));
+        double[] javaGrades = {2.0, 3.5, 5.0, 4.5};
+        for (int i = 0; i < studentIds.size(); i++)
+            gradeRepository.save(new Grade(studentIds.get(i), javaId, javaGrades[i]));
+        gradeRepository.save(new Grade(studentIds.get(0), databasesId, 1.0));
+        gradeRepository.save(new Grade(studentIds.get(1), databasesId, 3.0));
+    }
+
+    private List<Integer> topStudentIds(int limit) {
+        return gradeRepository.findTopGradesInCourse(javaId, PageRequest.of(0, limit)).stream().map(Grade::getStudentId).toList();
+    }
+
+    private int saveStudent(String email) {
+        return studentRepository.save(new Student("Rickard", "Ekstedt", LocalDate.of(1981, 3, 2), email)).getId();
+    }
+
+    @Test
+    void findByStudentIdInShouldFetchGradesOfAllGivenStudents() {
+        List<Grade> grades = gradeRepository.findByStudentIdIn(studentIds.subList(0, 2));
+
+        assertEquals(4, grades.size());
+    }
+
+    @Test
+    void averageAndCountShouldOnlyUseTheCourse() {
+        assertEquals(3.75, gradeRepository.summarizeCourse(javaId).averageGrade().getAsDouble(), 0.0001);
+        assertEquals(2.0, gradeRepository.summarizeCourse(databasesId).averageGrade().getAsDouble(), 0.0001);
+        assertEquals(4, gradeRepository.summarizeCourse(javaId).getGraded());
+    }
+
+    @Test
+    void averageShouldBeEmptyWithoutGrades() {
+        int emptyId = courseRepository.save(new Course("WEB1", "Web development")).getId();
+
+        assertTrue(gradeRepository.summarizeCourse(emptyId).averageGrade().isEmpty());
+    }
+
+    @Test
+    void topGradesShouldBeOrderedByGrade() {
+        assertEquals(List.of(studentIds.get(2), studentIds.get(3)), topStudentIds(2));
+    }
+
+    @Test
+    void histogramShouldCountStudentsPerWholeGrade() {
+        Map<Integer, Long> histogram = gradeRepository.gradeHistogramInCourse(javaId).stream()
+                .collect(Collectors.toMap(bucket -> bucket.getBucket().intValue(), bucket -> bucket.getStudents().longValue()));
+
+        assertEquals(Map.of(2, 1L, 3, 1L, 4, 2L), histogram);
+    }
+
+    @Test
+    void gradesOfDeletedStudentsShouldNotCount() {
+        int deleted = studentIds.get(2);
+        studentRepository.deleteStudents((root, query, builder) -> builder.equal(root.get("id"), deleted), true);
+
+        assertEquals(3, gradeRepository.summarizeCourse(javaId).getGraded());
+        assertEquals(List.of(studentIds.get(3)), topStudentIds(1));
+    }
+
+    @Test
+    void hardDeletedStudentsShouldTakeTheirGradesWithThem() {
+        int deleted = studentIds.get(0);
+        studentRepository.deleteStudents((root, query, builder) -> builder.equal(root.get("id"), deleted), false);
+
+        assertTrue(gradeRepository.findByStudentIdIn(List.of(deleted)).isEmpty());
+        assertEquals(4, gradeRepository.findByStudentIdIn(studentIds).size());
+    }
+
+    @Test
+    void deleteGradesOfStudentsShouldOnlyDeleteTheirGrades() {
+        assertEquals(2, gradeRepository.deleteGradesOfStudents(List.of(studentIds.get(0))));
+
+        assertEquals(4, gradeRepository.findByStudentIdIn(studentIds).size());
+    }
+}
@@ -4,10 +4,12 @@ import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.data.domain.Limit;
 import org.springframework.test.annotation.DirtiesContext;
 import se.verran.springbootdemowithtests.entities.Student;
 
 import java.time.LocalDate;
+import java.util.List;
 
 import static org.junit.jupiter.api.Assertions.*;
 @DataJpaTest
@@ -18,6 +20,8 @@ class StudentRepositoryTest {
     @Autowired
     StudentRepository studentRepository;
 
+    private int studentId;
+
     @BeforeEach
     void setUp() {
         // Skapa en student med alla obligatoriska fält ifyllda
@@ -26,7 +30,7 @@ class StudentRepositoryTest {
         student.setLastName("Ekstedt");
         student.setEmail("test@example.com");
         student.setBirthDate(LocalDate.of(1981, 3, 2));
-        studentRepository.save(student);
+        studentId = studentRepository.save(student).getId();
     }
 
 
@@ -47,4 +51,120 @@ class StudentRepositoryTest {
         // Verifiera att metoden returnerar false
         assertFalse(exists, "Student with the email should not exist");
     }
+
+    @Test
+    void patchStudentShouldUpdateOnlyGivenFieldsAndBumpVersion() {
+        Student changes = new Student();
+        changes.setLastName("Svensson");
+
+        int affectedRows = studentRepository.patchStudent(studentId, 0, changes);
+
+        assertEquals(1, affectedRows);
+        Student patched = studentRepository.findById(studentId).orElseThrow();
+        assertEquals("Rickard", patched.getFirstName());
+        assertEquals("Svensson", patched.getLastName());
+        assertEquals(1, patched.getVersion());
+    }
+
+    @Test
+    void updateStudentShouldOverwriteAllFieldsAndBumpVersion() {
+        Student student = new Student("Anna", "Svensson", LocalDate.of(1990, 1, 1), "anna@example.com");
+        student.setJavaProgrammingGrade(4.0);
+
+        int affectedRows = studentRepository.updateStudent(studentId, 0, student);
+
+        assertEquals(1, affectedRows);
+        Student updated = studentRepository.findById(studentId).orElseThrow();
+        assertEquals("Anna", updated.getFirstName());
+        assertEquals("anna@example.com", updated.getEmail());
+        assertEquals(4.0, updated.getJavaProgrammingGrade());
+        assertEquals(1, updated.getVersion());
+        assertEquals(0, studentRepository.updateStudent(studentId, 0, student));
+    }
+
+    @Test
+    void setGradeShouldBumpVersionSoAnUpdateOnTheOldVersionConflicts() {
+        int affectedRows = studentRepository.setGrade(studentId, 4.5);
+
+        assertEquals(1, affectedRows);
+        Student graded = studentRepository.findById(studentId).orElseThrow();
+        assertEquals(4.5, graded.getJavaProgrammingGrade());
+        assertEquals(1, graded.getVersion());
+        assertEquals(0, studentRepository.patchStudent(studentId, 0, new Student()));
+        assertEquals(0, studentRepository.setGrade(studentId + 1, 4.5));
+    }
+
+    @Test
+    void existsStudentByEmailAndIdNotShouldIgnoreTheStudentItself() {
+        assertFalse(studentRepository.existsStudentByEmailAndIdNot("test@example.com", studentId));
+        assertTrue(studentRepository.existsStudentByEmailAndIdNot("test@example.com", studentId + 1));
+    }
+
+    @Test
+    void patchStudentShouldNotUpdateWhenVersionIsStale() {
+        Student changes = new Student();
+        changes.setLastName("Svensson");
+
+        int affectedRows = studentRepository.patchStudent(studentId, 5, changes);
+
+        assertEquals(0, affectedRows);
+        assertEquals("Ekstedt", studentRepository.findById(studentId).orElseThrow().getLastName());
+    }
+
+    @Test
+    void deleteStudentsShouldRemoveMatchingStudents() {
+        int affectedRows = studentRepository.deleteStudents((root, query, builder) -> builder.equal(root.get("id"), studentId), false);
+
+        assertEquals(1, affectedRows);
+        assertTrue(studentRepository.findTombstonedStudentIds(10).isEmpty());
+        assertFalse(studentRepository.existsById(studentId));
+    }
+
+    @Test
+    void deleteStudentsByIdShouldReturnOnlyTheIdsThatWereDeleted() {
+        List<Integer> deletedIds = studentRepository.deleteStudentsById(List.of(studentId, studentId + 1), false);
+
+        assertEquals(List.of(studentId), deletedIds);
+        assertFalse(studentRepository.existsById(studentId));
+        assertTrue(studentRepository.deleteStudentsById(List.of(studentId), false).isEmpty());
+    }
+
+    @Test
+    void softDeletedStudentShouldBeHiddenUntilPurged() {
+        int affectedRows = studentRepository.deleteStudents((root, query, builder) -> builder.equal(root.get("id"), studentId), true);
+
+        assertEquals(1, affectedRows);
+        assertFalse(studentRepository.existsById(studentId));
+        assertFalse(studentRepository.existsStudentByEmail("test@example.com"));
+        assertEquals(List.of(studentId), studentRepository.findTombstonedStudentIds(10));
+
+        assertEquals(1, studentRepository.purgeTombstonedStudents(List.of(studentId)));
+        assertTrue(studentRepository.findTombstonedStudentIds(10).isEmpty());
+    }
+
+    @Test
+    void summarizeGradesShouldCountUngradedStudentsButOnlySumGrades() {
+        Student graded = new Student("Anna", "Andersson", LocalDate.of(1990, 1, 1), "anna@example.com");
+        graded.setJavaProgrammingGrade(4.0);
+        studentRepository.save(graded);
+
+        GradeSummary summary = studentRepository.summarizeGrades();
+
+        assertEquals(2, summary.getStudents());
+        assertEquals(1, summary.getGraded());
+        assertEquals(4.0, summary.averageGrade().getAsDouble());
+    }
+
+    @Test
+    void topScoringQueryShouldReturnBestGradesFirstWithoutUngraded() {
+        for (double grade : new double[]{3.0, 5.0, 4.0}) {
+            Student student = new Student("Anna", "Andersson", LocalDate.of(1990, 1, 1), "anna" + grade + "@example.com");
+            student.setJavaProgrammingGrade(grade);
+            studentRepository.save(student);
+        }
+
+        List<Student> top = studentRepository.findByJavaProgrammingGradeNotNullOrderByJavaProgrammingGradeDesc(Limit.of(2));
+
+        assertEquals(List.of(5.0, 4.0), top.stream().map(Student::getJavaProgrammingGrade).toList());
+    }
 }
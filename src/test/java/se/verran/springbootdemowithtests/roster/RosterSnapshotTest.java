@@ -0,0 +1,188 @@
+package se.verran.springbootdemowithtests.roster;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import se.verran.springbootdemowithtests.entities.Student;
+import se.verran.springbootdemowithtests.events.StudentChangedEvent;
+import se.verran.springbootdemowithtests.services.StudentService;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.util.List;
+import java.util.function.Consumer;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.Mockito.*;
+
+class RosterSnapshotTest {
+
+    @TempDir
+    Path snapshotDirectory;
+
+    private Path snapshotFile;
+    private StudentService mockedStudentService;
+
+    @BeforeEach
+    void setUp() {
+        snapshotFile = snapshotDirectory.resolve("student-roster.bin");
+        mockedStudentService = mock(StudentService.class);
+    }
+
+    private RosterSnapshot createRosterSnapshot() {
+        return new RosterSnapshot(mockedStudentService, snapshotFile, true, Duration.ofMinutes(1));
+    }
+
+    // Alla studenter som en enda sida
+    private void givenStudents(List<Student> students) {
+        doAnswer(invocation -> {
+            Consumer<List<Student>> consumer = invocation.getArgument(1);
+            consumer.accept(students);
+            return null;
+        }).when(mockedStudentService).forEachStudentPage(anyInt(), any());
+    }
+
+    private Student createStudent(int id, String firstName, Double grade) {
+        Student student = new Student(firstName, "Ekstedt", LocalDate.of(2000, 1, id), firstName.toLowerCase() + "@example.com");
+        student.setId(id);
+        student.setJavaProgrammingGrade(grade);
+        return student;
+    }
+
+    @Test
+    void warmUpWithoutSnapshotShouldLoadAllStudentsAndWriteFile() throws Exception {
+        // Given
+        givenStudents(List.of(createStudent(2, "Bertil", 4.0), createStudent(1, "Anna", 2.0)));
+        RosterSnapshot rosterSnapshot = createRosterSnapshot();
+
+        // When
+        rosterSnapshot.warmUp();
+
+        // Then
+        assertThat(rosterSnapshot.isReady()).isTrue();
+        assertThat(rosterSnapshot.count()).isEqualTo(2);
+        assertThat(rosterSnapshot.averageGrade()).hasValue(3.0);
+        assertThat(Files.size(snapshotFile)).isEqualTo(8 + 8 + 4 + 2L * RosterEntry.BYTES);
+        verify(mockedStudentService, never()).getStudentsModifiedAfter(any());
+    }
+
+    @Test
+    void warmUpWithSnapshotShouldOnlyReadStudentsChangedSinceIt() throws Exception {
+        // Given
+        givenStudents(List.of(createStudent(1, "Anna", 2.0), createStudent(2, "Bertil", 4.0)));
+        createRosterSnapshot().warmUp();
+        when(mockedStudentService.getStudentsModifiedAfter(any())).thenReturn(List.of(createStudent(3, "Cecilia", 6.0)));
+        when(mockedStudentService.getTombstonedStudentIdsModifiedAfter(any())).thenReturn(List.of(1));
+        when(mockedStudentService.countStudents()).thenReturn(2L);
+        RosterSnapshot restarted = createRosterSnapshot();
+
+        // When
+        restarted.warmUp();
+
+        // Then
+        assertThat(restarted.count()).isEqualTo(2);
+        assertThat(restarted.averageGrade()).hasValue(5.0);
+        assertThat(restarted.findById(1)).isNull();
+        assertThat(restarted.findById(2).getEmailHash()).isEqualTo(RosterEntry.emailHash("bertil@example.com"));
+        verify(mockedStudentService, times(1)).forEachStudentPage(anyInt(), any());
+        verify(mockedStudentService, never()).getAllStudentIds();
+        verify(mockedStudentService, never()).getStudentsByIds(any());
+    }
+
+    @Test
+    void catchUpShouldCompareIdsWhenRosterCountsMoreThanDatabase() throws Exception {
+        // Given
+        givenStudents(List.of(createStudent(1, "Anna", 2.0), createStudent(2, "Bertil", 4.0)));
+        RosterSnapshot rosterSnapshot = createRosterSnapshot();
+        rosterSnapshot.warmUp();
+        // Anna är hårt raderad via en annan instans, varken tombstone eller event
+        when(mockedStudentService.countStudents()).thenReturn(1L);
+        when(mockedStudentService.getAllStudentIds()).thenReturn(List.of(2));
+
+        // When
+        rosterSnapshot.catchUp();
+
+        // Then
+        assertThat(rosterSnapshot.findById(1)).isNull();
+        assertThat(rosterSnapshot.count()).isEqualTo(1);
+        assertThat(rosterSnapshot.averageGrade()).hasValue(4.0);
+    }
+
+    @Test
+    void catchUpShouldNotReadIdsWhenCountsAgree() throws Exception {
+        // Given
+        givenStudents(List.of(createStudent(1, "Anna", 2.0), createStudent(2, "Bertil", 4.0)));
+        RosterSnapshot rosterSnapshot = createRosterSnapshot();
+        rosterSnapshot.warmUp();
+        when(mockedStudentService.countStudents()).thenReturn(2L);
+
+        // When
+        rosterSnapshot.catchUp();
+
+        // Then
+        assertThat(rosterSnapshot.count()).isEqualTo(2);
+        verify(mockedStudentService, never()).getAllStudentIds();
+    }
+
+    @Test
+    void bulkDeleteShouldCompareIdsAtNextCatchUp() throws Exception {
+        // Given
+        givenStudents(List.of(createStudent(1, "Anna", 2.0), createStudent(2, "Bertil", 4.0), createStudent(3, "Cecilia", 5.0)));
+        RosterSnapshot rosterSnapshot = createRosterSnapshot();
+        rosterSnapshot.warmUp();
+        // Anna raderas i bulk och David saknar modified_at, antalet är detsamma
+        rosterSnapshot.onStudentChanged(new StudentChangedEvent(StudentChangedEvent.Type.DELETED, 0, null));
+        when(mockedStudentService.countStudents()).thenReturn(3L);
+        when(mockedStudentService.getAllStudentIds()).thenReturn(List.of(2, 3, 4));
+        when(mockedStudentService.getStudentsByIds(List.of(4))).thenReturn(List.of(createStudent(4, "David", 3.0)));
+
+        // When
+        rosterSnapshot.catchUp();
+        rosterSnapshot.catchUp();
+
+        // Then
+        assertThat(rosterSnapshot.findById(1)).isNull();
+        assertThat(rosterSnapshot.findById(4)).isNotNull();
+        assertThat(rosterSnapshot.count()).isEqualTo(3);
+        verify(mockedStudentService, times(1)).getAllStudentIds();
+    }
+
+    @Test
+    void averageGradeShouldOnlyCountGradedStudents() throws Exception {
+        // Given
+        givenStudents(List.of(createStudent(1, "Anna", 2.0)));
+        RosterSnapshot rosterSnapshot = createRosterSnapshot();
+        rosterSnapshot.warmUp();
+
+        // When
+        rosterSnapshot.onStudentChanged(new StudentChangedEvent(StudentChangedEvent.Type.ADDED, 2, createStudent(2, "Bertil", null)));
+
+        // Then
+        assertThat(rosterSnapshot.count()).isEqualTo(2);
+        assertThat(rosterSnapshot.averageGrade()).hasValue(2.0);
+    }
+
+    @Test
+    void changesShouldSurviveWritingNewSnapshot() throws Exception {
+        // Given
+        givenStudents(List.of(createStudent(1, "Anna", 2.0), createStudent(2, "Bertil", 4.0)));
+        RosterSnapshot rosterSnapshot = createRosterSnapshot();
+        rosterSnapshot.warmUp();
+        rosterSnapshot.onStudentChanged(new StudentChangedEvent(StudentChangedEvent.Type.DELETED, 2, null));
+        rosterSnapshot.onStudentChanged(new StudentChangedEvent(StudentChangedEvent.Type.GRADE_SET, 1, createStudent(1, "Anna", 5.0)));
+
+        // When
+        rosterSnapshot.writeSnapshot();
+        RosterSnapshot mapped = new RosterSnapshot(null, snapshotFile, true, Duration.ofMinutes(1));
+
+        // Then
+        assertThat(mapped.map(snapshotFile)).isTrue();
+        assertThat(mapped.count()).isEqualTo(1);
+        assertThat(mapped.findById(1).getGrade()).isEqualTo(5.0);
+        assertThat(rosterSnapshot.averageGrade()).hasValue(5.0);
+    }
+}
@@ -0,0 +1,175 @@
+package se.verran.springbootdemowithtests.search;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.web.server.ResponseStatusException;
+import se.verran.springbootdemowithtests.entities.Student;
+import se.verran.springbootdemowithtests.events.StudentChangedEvent;
+import se.verran.springbootdemowithtests.services.StudentService;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.Mockito.*;
+
+class StudentSearchIndexTest {
+
+    private StudentSearchIndex studentSearchIndex;
+    private StudentService mockedStudentService;
+
+    @BeforeEach
+    void setUp() {
+        mockedStudentService = mock(StudentService.class);
+        givenStudents(List.of(
+                createStudent(1, "Rickard", "Ekstedt", "rickard.ekstedt@example.com"),
+                createStudent(2, "Erik", "Rickardsson", "erik@example.com"),
+                createStudent(3, "Michael", "Granbäck", "michael.granback@xlent.se")
+        ));
+        studentSearchIndex = new StudentSearchIndex(mockedStudentService, true);
+        studentSearchIndex.buildOnStartup();
+    }
+
+    // Alla studenter som en enda sida
+    private void givenStudents(List<Student> students) {
+        doAnswer(invocation -> {
+            Consumer<List<Student>> consumer = invocation.getArgument(1);
+            consumer.accept(students);
+            return null;
+        }).when(mockedStudentService).forEachStudentPage(anyInt(), any());
+    }
+
+    private Student createStudent(int id, String firstName, String lastName, String email) {
+        Student student = new Student(firstName, lastName, LocalDate.of(1990, 1, 1), email);
+        student.setId(id);
+        return student;
+    }
+
+    private List<Integer> idsOf(List<Student> students) {
+        return students.stream().map(Student::getId).toList();
+    }
+
+    @Test
+    void prefixMatchesShouldRankAboveSubstringMatches() {
+        List<Student> result = studentSearchIndex.search("rick", 0, 10);
+
+        assertThat(idsOf(result)).containsExactly(1, 2);
+    }
+
+    @Test
+    void substringShouldMatchInsideNames() {
+        List<Student> result = studentSearchIndex.search("ardss", 0, 10);
+
+        assertThat(idsOf(result)).containsExactly(2);
+    }
+
+    @Test
+    void typoShouldStillFindStudent() {
+        List<Student> result = studentSearchIndex.search("granbeck", 0, 10);
+
+        assertThat(idsOf(result)).containsExactly(3);
+    }
+
+    @Test
+    void allTermsShouldHaveToMatch() {
+        List<Student> result = studentSearchIndex.search("erik rick", 0, 10);
+
+        assertThat(idsOf(result)).containsExactly(2);
+    }
+
+    @Test
+    void resultsShouldBePaged() {
+        assertThat(idsOf(studentSearchIndex.search("rick", 0, 1))).containsExactly(1);
+        assertThat(idsOf(studentSearchIndex.search("rick", 1, 1))).containsExactly(2);
+    }
+
+    @Test
+    void indexShouldFollowStudentChanges() {
+        studentSearchIndex.onStudentChanged(new StudentChangedEvent(StudentChangedEvent.Type.DELETED, 3, null));
+        studentSearchIndex.onStudentChanged(new StudentChangedEvent(StudentChangedEvent.Type.ADDED, 4,
+                createStudent(4, "Anna", "Granlund", "anna@example.com")));
+
+        assertThat(idsOf(studentSearchIndex.search("gran", 0, 10))).containsExactly(4);
+    }
+
+    @Test
+    void invalidPageSizeShouldBeRejected() {
+        assertThatThrownBy(() -> studentSearchIndex.search("rick", 0, 0))
+                .isInstanceOf(ResponseStatusException.class)
+                .hasMessageContaining("Page should be at least 0 and size 1 - 100");
+    }
+
+    @Test
+    void bulkDeleteShouldOnlyReadRemainingIds() {
+        when(mockedStudentService.getAllStudentIds()).thenReturn(List.of(1, 2));
+
+        studentSearchIndex.onStudentChanged(new StudentChangedEvent(StudentChangedEvent.Type.DELETED, 0, null));
+
+        assertThat(idsOf(studentSearchIndex.search("michael", 0, 10))).isEmpty();
+        assertThat(idsOf(studentSearchIndex.search("rick", 0, 10))).containsExactly(1, 2);
+        verify(mockedStudentService, times(1)).forEachStudentPage(anyInt(), any());
+    }
+
+    @Test
+    void searchShouldKeepServingTheOldIndexWhileRebuilding() {
+        // Rebuilden laddar studenter medan sökningar och ändringar fortsätter
+        doAnswer(invocation -> {
+            assertThat(idsOf(studentSearchIndex.search("michael", 0, 10))).containsExactly(3);
+            studentSearchIndex.onStudentChanged(new StudentChangedEvent(StudentChangedEvent.Type.ADDED, 4,
+                    createStudent(4, "Anna", "Granlund", "anna@example.com")));
+            Consumer<List<Student>> consumer = invocation.getArgument(1);
+            consumer.accept(List.of(createStudent(3, "Michael", "Granbäck", "michael.granback@xlent.se")));
+            return null;
+        }).when(mockedStudentService).forEachStudentPage(anyInt(), any());
+
+        studentSearchIndex.rebuild();
+
+        assertThat(idsOf(studentSearchIndex.search("gran", 0, 10))).containsExactlyInAnyOrder(3, 4);
+        assertThat(idsOf(studentSearchIndex.search("rick", 0, 10))).isEmpty();
+    }
+
+    @Test
+    void pageBeyondTheResultsShouldBeEmpty() {
+        assertThat(studentSearchIndex.search("rick", 1_000_000, 100)).isEmpty();
+    }
+
+    @Test
+    void emailDomainShouldNotBeSearchable() {
+        assertThat(studentSearchIndex.search("example", 0, 10)).isEmpty();
+        assertThat(idsOf(studentSearchIndex.search("erik@example.com", 0, 10))).containsExactly(2);
+        assertThat(idsOf(studentSearchIndex.search("ekstedt", 0, 10))).containsExactly(1);
+    }
+
+    @Test
+    void termMatchingAlmostEveryoneShouldBeSkipped() {
+        // Nästan alla heter Andersson, bara förnamnet skiljer dem åt
+        List<Student> students = new ArrayList<>();
+        for (int id = 1; id <= 1200; id++)
+            students.add(createStudent(id, "Student" + id, "Andersson", "student" + id + "@example.com"));
+        students.add(createStudent(1201, "Anna", "Andersson", "anna@example.com"));
+        givenStudents(students);
+        studentSearchIndex.rebuild();
+
+        assertThat(idsOf(studentSearchIndex.search("anna andersson", 0, 10))).containsExactly(1201);
+        assertThat(studentSearchIndex.search("andersson", 0, 10)).isEmpty();
+    }
+
+    @Test
+    void withoutBuildOnStartupFirstSearchShouldBuildTheIndex() {
+        // Given
+        StudentSearchIndex lazyIndex = new StudentSearchIndex(mockedStudentService, false);
+        lazyIndex.buildOnStartup();
+        verify(mockedStudentService, times(1)).forEachStudentPage(anyInt(), any());
+
+        // When
+        List<Student> result = lazyIndex.search("michael", 0, 10);
+
+        // Then
+        assertThat(idsOf(result)).containsExactly(3);
+        lazyIndex.search("rick", 0, 10);
+        verify(mockedStudentService, times(2)).forEachStudentPage(anyInt(), any());
+    }
+}
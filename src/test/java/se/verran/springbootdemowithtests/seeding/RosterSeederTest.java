@@ -0,0 +1,81 @@
+package se.verran.springbootdemowithtests.seeding;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import se.verran.springbootdemowithtests.entities.Student;
+import se.verran.springbootdemowithtests.sharding.StudentShards;
+
+import javax.sql.DataSource;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+// Hibernate creates the student table, so the insert has to match the entity as it is
+@DataJpaTest
+class RosterSeederTest {
+
+    @Autowired
+    DataSource dataSource;
+
+    private JdbcTemplate jdbcTemplate;
+
+    @BeforeEach
+    void setUp() {
+        jdbcTemplate = new JdbcTemplate(dataSource);
+    }
+
+    @Test
+    void sameSeedShouldGenerateSameStudents() {
+        // Given
+        Student first = new RosterGenerator(7).student(123);
+        Student second = new RosterGenerator(7).student(123);
+
+        // Then
+        assertThat(second).usingRecursiveComparison().isEqualTo(first);
+        assertThat(new RosterGenerator(8).student(123)).usingRecursiveComparison().isNotEqualTo(first);
+    }
+
+    @Test
+    void generatedStudentsShouldBeValid() {
+        // When
+        List<Student> students = new RosterGenerator(42, 0.1).students(0, 10_000);
+
+        // Then
+        Set<String> emails = new HashSet<>();
+        List<Double> grades = new ArrayList<>();
+        for (Student student : students) {
+            assertThat(emails.add(student.getEmail())).isTrue();
+            assertThat(student.getEmail().length()).isLessThanOrEqualTo(50);
+            assertThat(student.getBirthDate()).isBetween(RosterGenerator.REFERENCE_DATE.minusYears(66), RosterGenerator.REFERENCE_DATE.minusYears(18));
+            if (student.getJavaProgrammingGrade() != null)
+                grades.add(student.getJavaProgrammingGrade());
+        }
+        assertThat(grades).allSatisfy(grade -> assertThat(grade).isBetween(0.0, 5.0));
+        assertThat(grades.size()).isBetween(8_500, 9_500);
+        assertThat(grades.stream().mapToDouble(Double::doubleValue).average().orElseThrow()).isBetween(3.0, 3.4);
+    }
+
+    @Test
+    void seederShouldInsertAllStudentsInBatches() {
+        // Given
+        RosterSeeder seeder = new RosterSeeder(dataSource, StudentShards.single());
+        List<Long> progress = new ArrayList<>();
+
+        // When
+        long inserted = seeder.seed(new RosterGenerator(42), 0, 2_500, 1_000, progress::add);
+
+        // Then
+        assertThat(inserted).isEqualTo(2_500);
+        assertThat(progress).containsExactly(1_000L, 2_000L, 2_500L);
+        assertThat(jdbcTemplate.queryForObject("select count(distinct email) from student", Long.class)).isEqualTo(2_500);
+        // Id-sekvensen nollställs inte mellan testerna, ta den första raden
+        assertThat(jdbcTemplate.queryForObject("select email from student order by id fetch first 1 rows only", String.class))
+                .isEqualTo(new RosterGenerator(42).student(0).getEmail());
+    }
+}
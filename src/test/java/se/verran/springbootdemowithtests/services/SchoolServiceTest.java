@@ -1,11 +1,22 @@
 package se.verran.springbootdemowithtests.services;
 
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
 import org.springframework.web.server.ResponseStatusException;
+import se.verran.springbootdemowithtests.entities.Course;
 import se.verran.springbootdemowithtests.entities.Student;
+import se.verran.springbootdemowithtests.repositories.GradeSummary;
+import se.verran.springbootdemowithtests.roster.RosterSnapshot;
 
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Comparator;
 import java.util.List;
+import java.util.Objects;
+import java.util.OptionalDouble;
+import java.util.function.Consumer;
 
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.assertj.core.api.Assertions.assertThatThrownBy;
@@ -15,14 +26,17 @@ import static org.mockito.Mockito.*;
 class SchoolServiceTest {
     SchoolService schoolService;
     private StudentService mockedStudentService;
+    private CourseService mockedCourseService;
 
     @BeforeEach
     void setUp() {
         // Mocka beroendet
         mockedStudentService = mock(StudentService.class);
+        mockedCourseService = mock(CourseService.class);
 
         // Injektera mocken i StudentService
-        schoolService = new SchoolService(mockedStudentService);
+        schoolService = new SchoolService(mockedStudentService, new StatisticsCoalescer(0, new SimpleMeterRegistry()),
+                new RosterSnapshot(null, Path.of("student-roster.bin"), false, Duration.ofMinutes(1)), mockedCourseService);
     }
     // Hjälpfunktion för student med betyg
     private Student createStudentWithGrade(Double grade) {
@@ -31,11 +45,24 @@ class SchoolServiceTest {
         return student;
     }
 
+    // Mocka aggregaten som StudentService räknar fram per shard
+    private void givenStudents(List<Student> students) {
+        long graded = students.stream().map(Student::getJavaProgrammingGrade).filter(Objects::nonNull).count();
+        double gradeSum = students.stream().map(Student::getJavaProgrammingGrade).filter(Objects::nonNull).mapToDouble(Double::doubleValue).sum();
+        when(mockedStudentService.countStudents()).thenReturn((long) students.size());
+        when(mockedStudentService.summarizeGrades()).thenReturn(new GradeSummary((long) students.size(), graded, gradeSum));
+        when(mockedStudentService.getTopScoringStudents(anyInt())).thenAnswer(invocation -> students.stream()
+                .filter(student -> student.getJavaProgrammingGrade() != null)
+                .sorted(Comparator.comparing(Student::getJavaProgrammingGrade).reversed())
+                .limit(invocation.<Integer>getArgument(0))
+                .toList());
+    }
+
     @Test
     void shouldReturnErrorWhenNumberOfGroupsIsLessThanTwo() {
         // Given
         List<Student> students = List.of(new Student(), new Student(), new Student());
-        when(mockedStudentService.getAllStudents()).thenReturn(students);
+        givenStudents(students);
         int numberOfGroups = 1;
 
         // When
@@ -43,14 +70,14 @@ class SchoolServiceTest {
 
         // Then
         assertThat(result).isEqualTo("There should be at least two groups");
-        verify(mockedStudentService, times(1)).getAllStudents();
+        verify(mockedStudentService, times(1)).countStudents();
     }
 
     @Test
     void shouldReturnErrorWhenNumberOfGroupsIsGreaterThanNumberOfStudents() {
         // Given
         List<Student> students = List.of(new Student(), new Student(), new Student());
-        when(mockedStudentService.getAllStudents()).thenReturn(students);
+        givenStudents(students);
         int numberOfGroups = 4;
 
         // When
@@ -58,14 +85,14 @@ class SchoolServiceTest {
 
         // Then
         assertThat(result).isEqualTo("Not able to divide 3 students into 4 groups");
-        verify(mockedStudentService, times(1)).getAllStudents();
+        verify(mockedStudentService, times(1)).countStudents();
     }
 
     @Test
     void shouldReturnErrorWhenStudentsPerGroupIsLessThanTwo() {
         // Given
         List<Student> students = List.of(new Student(), new Student(), new Student());
-        when(mockedStudentService.getAllStudents()).thenReturn(students);
+        givenStudents(students);
         int numberOfGroups = 3;
 
         // When
@@ -73,14 +100,14 @@ class SchoolServiceTest {
 
         // Then
         assertThat(result).isEqualTo("Not able to manage 3 groups with 3 students");
-        verify(mockedStudentService, times(1)).getAllStudents();
+        verify(mockedStudentService, times(1)).countStudents();
     }
 
     @Test
     void shouldReturnCorrectDivisionWhenStudentsCanBeEquallyDivided() {
         // Given
         List<Student> students = List.of(new Student(), new Student(), new Student(), new Student());
-        when(mockedStudentService.getAllStudents()).thenReturn(students);
+        givenStudents(students);
         int numberOfGroups = 2;
 
         // When
@@ -88,14 +115,14 @@ class SchoolServiceTest {
 
         // Then
         assertThat(result).isEqualTo("2 groups could be formed with 2 students per group");
-        verify(mockedStudentService, times(1)).getAllStudents();
+        verify(mockedStudentService, times(1)).countStudents();
     }
 
     @Test
     void shouldReturnCorrectDivisionWithRemainderWhenStudentsCannotBeEquallyDivided() {
         // Given
         List<Student> students = List.of(new Student(), new Student(), new Student(), new Student(), new Student());
-        when(mockedStudentService.getAllStudents()).thenReturn(students);
+        givenStudents(students);
         int numberOfGroups = 2;
 
         // When
@@ -103,14 +130,14 @@ class SchoolServiceTest {
 
         // Then
         assertThat(result).isEqualTo("2 groups could be formed with 2 students per group, but that would leave 1 student hanging");
-        verify(mockedStudentService, times(1)).getAllStudents();
+        verify(mockedStudentService, times(1)).countStudents();
     }
 
     @Test
     void shouldReturnErrorWhenSizeOfGroupIsLessThanTwo() {
         // Given
         List<Student> students = List.of(new Student(), new Student(), new Student());
-        when(mockedStudentService.getAllStudents()).thenReturn(students);
+        givenStudents(students);
         int studentsPerGroup = 1;
 
         // When
@@ -118,14 +145,14 @@ class SchoolServiceTest {
 
         // Then
         assertThat(result).isEqualTo("Size of group should be at least 2");
-        verify(mockedStudentService, times(1)).getAllStudents();
+        verify(mockedStudentService, times(1)).countStudents();
     }
 
     @Test
     void shouldReturnErrorWhenNotEnoughStudentsToFormGroups() {
         // Given
         List<Student> students = List.of(new Student(), new Student());
-        when(mockedStudentService.getAllStudents()).thenReturn(students);
+        givenStudents(students);
         int studentsPerGroup = 3;
 
         // When
@@ -133,14 +160,14 @@ class SchoolServiceTest {
 
         // Then
         assertThat(result).isEqualTo("Not able to manage groups of 3 with only 2 students");
-        verify(mockedStudentService, times(1)).getAllStudents();
+        verify(mockedStudentService, times(1)).countStudents();
     }
 
     @Test
     void shouldReturnCorrectNumberOfGroupsWithoutRemainder() {
         // Given
         List<Student> students = List.of(new Student(), new Student(), new Student(), new Student(), new Student(), new Student());
-        when(mockedStudentService.getAllStudents()).thenReturn(students);
+        givenStudents(students);
         int studentsPerGroup = 3;
 
         // When
@@ -148,14 +175,14 @@ class SchoolServiceTest {
 
         // Then
         assertThat(result).isEqualTo("3 students per group is possible, there will be 2 groups");
-        verify(mockedStudentService, times(1)).getAllStudents();
+        verify(mockedStudentService, times(1)).countStudents();
     }
 
     @Test
     void shouldReturnCorrectNumberOfGroupsWithRemainder() {
         // Given
         List<Student> students = List.of(new Student(), new Student(), new Student(), new Student(), new Student());
-        when(mockedStudentService.getAllStudents()).thenReturn(students);
+        givenStudents(students);
         int studentsPerGroup = 2;
 
         // When
@@ -163,13 +190,13 @@ class SchoolServiceTest {
 
         // Then
         assertThat(result).isEqualTo("2 students per group is possible, there will be 2 groups, there will be 1 student hanging");
-        verify(mockedStudentService, times(1)).getAllStudents();
+        verify(mockedStudentService, times(1)).countStudents();
     }
 
     @Test
     void shouldThrowExceptionWhenNoStudentsFoundForAverageGrade() {
         // Given
-        when(mockedStudentService.getAllStudents()).thenReturn(List.of());
+        givenStudents(List.of());
 
         // When & Then
         ResponseStatusException thrownException = assertThrows(ResponseStatusException.class, () -> {
@@ -190,14 +217,14 @@ class SchoolServiceTest {
                 createStudentWithGrade(80.0),
                 createStudentWithGrade(90.0)
         );
-        when(mockedStudentService.getAllStudents()).thenReturn(students);
+        givenStudents(students);
 
         // When
         String result = schoolService.calculateAverageGrade();
 
         // Then
         assertThat(result).isEqualTo("Average grade is 80,0");
-        verify(mockedStudentService, times(1)).getAllStudents();
+        verify(mockedStudentService, times(1)).summarizeGrades();
     }
 
     @Test
@@ -208,14 +235,14 @@ class SchoolServiceTest {
                 createStudentWithGrade(85.0),
                 createStudentWithGrade(85.0)
         );
-        when(mockedStudentService.getAllStudents()).thenReturn(students);
+        givenStudents(students);
 
         // When
         String result = schoolService.calculateAverageGrade();
 
         // Then
         assertThat(result).isEqualTo("Average grade is 85,0");
-        verify(mockedStudentService, times(1)).getAllStudents();
+        verify(mockedStudentService, times(1)).summarizeGrades();
     }
 
 
@@ -226,28 +253,28 @@ class SchoolServiceTest {
                 createStudentWithGrade(75.5),
                 createStudentWithGrade(85.5)
         );
-        when(mockedStudentService.getAllStudents()).thenReturn(students);
+        givenStudents(students);
 
         // When
         String result = schoolService.calculateAverageGrade();
 
         // Then
         assertThat(result).isEqualTo("Average grade is 80,5");
-        verify(mockedStudentService, times(1)).getAllStudents();
+        verify(mockedStudentService, times(1)).summarizeGrades();
     }
 
 
     @Test
     void shouldThrowExceptionWhenNoStudentsFoundForTopScoringStudents() {
         // Given
-        when(mockedStudentService.getAllStudents()).thenReturn(List.of());
+        givenStudents(List.of());
 
         // When & Then
         assertThatThrownBy(() -> schoolService.getTopScoringStudents())
                 .isInstanceOf(ResponseStatusException.class)
                 .hasMessage("404 NOT_FOUND \"No students found\""); // Kontrollera meddelandet direkt
 
-        verify(mockedStudentService, times(1)).getAllStudents();
+        verify(mockedStudentService, times(1)).countStudents();
     }
 
 
@@ -261,7 +288,7 @@ class SchoolServiceTest {
                 createStudentWithGrade(80.0),
                 createStudentWithGrade(75.0)
         );
-        when(mockedStudentService.getAllStudents()).thenReturn(students);
+        givenStudents(students);
 
         // When
         List<Student> topStudents = schoolService.getTopScoringStudents();
@@ -269,7 +296,7 @@ class SchoolServiceTest {
         // Then
         assertThat(topStudents).hasSize(1); // 20% of 4 students is 0.8, which rounds up to 1 student
         assertThat(topStudents.get(0).getJavaProgrammingGrade()).isEqualTo(90.0);
-        verify(mockedStudentService, times(1)).getAllStudents();
+        verify(mockedStudentService, times(1)).getTopScoringStudents(1);
     }
 
     @Test
@@ -279,7 +306,7 @@ class SchoolServiceTest {
                 createStudentWithGrade(88.0),
                 createStudentWithGrade(92.0)
         );
-        when(mockedStudentService.getAllStudents()).thenReturn(students);
+        givenStudents(students);
 
         // When
         List<Student> topStudents = schoolService.getTopScoringStudents();
@@ -287,7 +314,7 @@ class SchoolServiceTest {
         // Then
         assertThat(topStudents).hasSize(1); // 20% of 2 students is 0.4, which rounds up to 1 student
         assertThat(topStudents.get(0).getJavaProgrammingGrade()).isEqualTo(92.0);
-        verify(mockedStudentService, times(1)).getAllStudents();
+        verify(mockedStudentService, times(1)).getTopScoringStudents(1);
     }
 
     @Test
@@ -299,7 +326,7 @@ class SchoolServiceTest {
                 createStudentWithGrade(85.0),
                 createStudentWithGrade(85.0)
         );
-        when(mockedStudentService.getAllStudents()).thenReturn(students);
+        givenStudents(students);
 
         // When
         List<Student> topStudents = schoolService.getTopScoringStudents();
@@ -307,6 +334,80 @@ class SchoolServiceTest {
         // Then
         assertThat(topStudents).hasSize(1); // 20% of 4 students is 0.8, which rounds up to 1 student
         assertThat(topStudents.get(0).getJavaProgrammingGrade()).isEqualTo(85.0);
-        verify(mockedStudentService, times(1)).getAllStudents();
+        verify(mockedStudentService, times(1)).getTopScoringStudents(1);
+    }
+
+    @Test
+    void shouldAnswerCountAndAverageGradeFromReadySnapshot(@TempDir Path snapshotDirectory) throws Exception {
+        // Given
+        List<Student> students = List.of(
+                createStudentWithGrade(2.0),
+                createStudentWithGrade(3.0),
+                createStudentWithGrade(4.0)
+        );
+        for (int i = 0; i < students.size(); i++)
+            students.get(i).setId(i + 1);
+        doAnswer(invocation -> {
+            Consumer<List<Student>> consumer = invocation.getArgument(1);
+            consumer.accept(students);
+            return null;
+        }).when(mockedStudentService).forEachStudentPage(anyInt(), any());
+        RosterSnapshot rosterSnapshot = new RosterSnapshot(mockedStudentService, snapshotDirectory.resolve("student-roster.bin"), true, Duration.ofMinutes(1));
+        rosterSnapshot.warmUp();
+        schoolService = new SchoolService(mockedStudentService, new StatisticsCoalescer(0, new SimpleMeterRegistry()), rosterSnapshot, mockedCourseService);
+
+        // When
+        int numberOfStudents = schoolService.countStudents();
+        String averageGrade = schoolService.calculateAverageGrade();
+
+        // Then
+        assertThat(numberOfStudents).isEqualTo(3);
+        assertThat(averageGrade).matches("Average grade is 3[.,]0");
+        verify(mockedStudentService, never()).countStudents();
+        verify(mockedStudentService, never()).summarizeGrades();
+    }
+
+    @Test
+    void shouldCalculateAverageGradeInCourseFromAggregate() {
+        // Given
+        Course course = new Course("JAVA1", "Java programming");
+        when(mockedCourseService.getCourseByCode("JAVA1")).thenReturn(course);
+        when(mockedCourseService.averageGrade(course)).thenReturn(OptionalDouble.of(4.0));
+
+        // When
+        String result = schoolService.calculateAverageGrade("JAVA1");
+
+        // Then
+        assertThat(result).matches("Average grade is 4[.,]0");
+        verify(mockedStudentService, never()).getAllStudents();
+    }
+
+    @Test
+    void shouldAskForTopTwentyPercentOfGradedStudentsInCourse() {
+        // Given
+        Course course = new Course("JAVA1", "Java programming");
+        List<Student> topStudents = List.of(createStudentWithGrade(5.0), createStudentWithGrade(4.5));
+        when(mockedCourseService.getCourseByCode("JAVA1")).thenReturn(course);
+        when(mockedCourseService.countGraded(course)).thenReturn(6L);
+        when(mockedCourseService.topScoringStudents(course, 2)).thenReturn(topStudents);
+
+        // When
+        List<Student> result = schoolService.getTopScoringStudents("JAVA1");
+
+        // Then
+        assertThat(result).isEqualTo(topStudents);
+    }
+
+    @Test
+    void shouldThrowExceptionWhenNoGradesInCourse() {
+        // Given
+        Course course = new Course("JAVA1", "Java programming");
+        when(mockedCourseService.getCourseByCode("JAVA1")).thenReturn(course);
+        when(mockedCourseService.averageGrade(course)).thenReturn(OptionalDouble.empty());
+
+        // When / Then
+        assertThatThrownBy(() -> schoolService.calculateAverageGrade("JAVA1"))
+                .isInstanceOf(ResponseStatusException.class)
+                .hasMessageContaining("No grades found in course JAVA1");
     }
 }
@@ -0,0 +1,195 @@
+package se.verran.springbootdemowithtests.services;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabase;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.context.TestPropertySource;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.web.server.ResponseStatusException;
+import se.verran.springbootdemowithtests.datasource.RecentWrites;
+import se.verran.springbootdemowithtests.entities.Course;
+import se.verran.springbootdemowithtests.entities.Student;
+import se.verran.springbootdemowithtests.repositories.CourseRepository;
+import se.verran.springbootdemowithtests.repositories.GradeRepository;
+import se.verran.springbootdemowithtests.repositories.StudentRepository;
+import se.verran.springbootdemowithtests.seeding.RosterGenerator;
+import se.verran.springbootdemowithtests.seeding.RosterSeeder;
+import se.verran.springbootdemowithtests.sharding.ShardingConfig;
+import se.verran.springbootdemowithtests.sharding.StudentShards;
+
+import javax.sql.DataSource;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+// StudentService through JPA against two H2 shards, every service call opens its own transactions
+@DataJpaTest
+@Import(ShardingConfig.class)
+@AutoConfigureTestDatabase(replace = AutoConfigureTestDatabase.Replace.NONE)
+@Transactional(propagation = Propagation.NOT_SUPPORTED)
+@DirtiesContext(classMode = DirtiesContext.ClassMode.AFTER_EACH_TEST_METHOD)
+@TestPropertySource(properties = {
+        "student.sharding.enabled=true",
+        "student.sharding.strategy=id-range",
+        "student.sharding.id-range-size=1000",
+        "student.sharding.shards[0].url=jdbc:h2:mem:studentshard0",
+        "student.sharding.shards[0].username=sa",
+        "student.sharding.shards[1].url=jdbc:h2:mem:studentshard1",
+        "student.sharding.shards[1].username=sa"
+})
+class ShardedStudentServiceTest {
+
+    @Autowired
+    StudentRepository studentRepository;
+    @Autowired
+    CourseRepository courseRepository;
+    @Autowired
+    GradeRepository gradeRepository;
+    @Autowired
+    StudentShards studentShards;
+    @Autowired
+    DataSource dataSource;
+
+    private StudentService studentService;
+    private CourseService courseService;
+
+    @BeforeEach
+    void setUp() {
+        // Hibernate skapar bara schemat i första sharden, kopiera det till den andra
+        JdbcTemplate jdbcTemplate = new JdbcTemplate(dataSource);
+        List<String> schema = jdbcTemplate.queryForList("script nodata", String.class).stream()
+                .filter(statement -> statement.startsWith("CREATE") || statement.startsWith("ALTER"))
+                .filter(statement -> !statement.startsWith("CREATE USER"))
+                .toList();
+        studentShards.onShard(1, () -> {
+            schema.forEach(jdbcTemplate::execute);
+            jdbcTemplate.execute("alter table student alter column id restart with 1001");
+            return null;
+        });
+        studentService = new StudentService(studentRepository, new RecentWrites(5000), studentShards, event -> {
+        }, false);
+        courseService = new CourseService(courseRepository, gradeRepository, studentService, studentShards, event -> {
+        });
+    }
+
+    private Student newStudent(String email) {
+        return new Student("Rickard", "Ekstedt", LocalDate.of(1981, 3, 2), email);
+    }
+
+    @Test
+    void newStudentsShouldBeSpreadOverTheShards() {
+        // When
+        Student first = studentService.addStudent(newStudent("first@example.com"));
+        Student second = studentService.addStudent(newStudent("second@example.com"));
+
+        // Then
+        assertThat(List.of(first.getId(), second.getId())).containsExactlyInAnyOrder(1, 1001);
+        assertThat(studentShards.onAllShards(studentRepository::count)).containsExactly(1L, 1L);
+        assertThat(studentService.getAllStudents()).hasSize(2);
+        assertThat(studentService.countStudents()).isEqualTo(2);
+        assertThat(studentService.getStudentById(1001).getId()).isEqualTo(1001);
+    }
+
+    @Test
+    void seededStudentsShouldBeSpreadOverTheShards() {
+        // When
+        long inserted = new RosterSeeder(dataSource, studentShards).seed(new RosterGenerator(42), 0, 10, 4);
+
+        // Then
+        assertThat(inserted).isEqualTo(10);
+        assertThat(studentShards.onAllShards(studentRepository::count)).containsExactly(5L, 5L);
+        assertThat(studentService.getStudentById(1001).getEmail()).isEqualTo(new RosterGenerator(42).student(1).getEmail());
+    }
+
+    @Test
+    void everyStudentShouldBeReadPageByPage() {
+        // Given
+        for (int i = 0; i < 5; i++)
+            studentService.addStudent(newStudent("student" + i + "@example.com"));
+        List<List<Integer>> pages = new ArrayList<>();
+
+        // When
+        studentService.forEachStudentPage(2, page -> pages.add(page.stream().map(Student::getId).toList()));
+
+        // Then
+        assertThat(pages).containsExactly(List.of(1, 2), List.of(3), List.of(1001, 1002));
+    }
+
+    @Test
+    void studentsShouldBeReadBestGradeFirstOverAllShards() {
+        // Given
+        for (int i = 0; i < 5; i++)
+            studentService.addStudent(newStudent("student" + i + "@example.com"));
+        studentService.setGradeForStudentById(1, "4.0");
+        studentService.setGradeForStudentById(1001, "5.0");
+        studentService.setGradeForStudentById(2, "4.0");
+        studentService.setGradeForStudentById(3, "3.0");
+        List<List<Integer>> pages = new ArrayList<>();
+
+        // When
+        studentService.forEachStudentPageByGrade(2, page -> pages.add(page.stream().map(Student::getId).toList()));
+
+        // Then
+        assertThat(pages).containsExactly(List.of(1001, 1), List.of(2, 3), List.of(1002));
+        assertThat(studentService.getGradeDistribution()).containsExactly(0, 0, 0, 0, 0, 0, 1, 0, 2, 1, 1);
+    }
+
+    @Test
+    void updatesShouldGoToTheShardHoldingTheStudent() {
+        // Given
+        studentService.addStudent(newStudent("first@example.com"));
+        studentService.addStudent(newStudent("second@example.com"));
+        Student onSecondShard = studentService.getStudentById(1001);
+        onSecondShard.setFirstName("Anna");
+
+        // When
+        studentService.updateStudent(onSecondShard);
+        studentService.setGradeForStudentById(1001, "4.5");
+
+        // Then
+        Student updated = studentService.getStudentById(1001);
+        assertThat(updated.getFirstName()).isEqualTo("Anna");
+        assertThat(updated.getJavaProgrammingGrade()).isEqualTo(4.5);
+        assertThat(studentShards.onAllShards(studentRepository::count)).containsExactly(1L, 1L);
+    }
+
+    @Test
+    void gradeForStudentOnNoShardShouldBeNotFound() {
+        // Given
+        studentService.addStudent(newStudent("first@example.com"));
+
+        // When & Then
+        assertThatThrownBy(() -> studentService.setGradeForStudentById(5000, "4.5"))
+                .isInstanceOf(ResponseStatusException.class)
+                .hasMessageContaining("404 NOT_FOUND");
+    }
+
+    @Test
+    void courseStatisticsShouldCoverGradesOnEveryShard() {
+        // Given
+        Course course = courseService.addCourse(new Course("JAVA1", "Java programming"));
+        studentService.addStudent(newStudent("first@example.com"));
+        studentService.addStudent(newStudent("second@example.com"));
+        studentService.addStudent(newStudent("third@example.com"));
+        courseService.setGrade(1, "JAVA1", "2.0");
+        courseService.setGrade(1001, "JAVA1", "5.0");
+        courseService.setGrade(2, "JAVA1", "3.5");
+
+        // When & Then
+        assertThat(studentShards.onAllShards(gradeRepository::count)).containsExactly(2L, 1L);
+        assertThat(courseService.averageGrade(course)).hasValue(3.5);
+        assertThat(courseService.countGraded(course)).isEqualTo(3);
+        assertThat(courseService.topScoringStudents(course, 2)).extracting(Student::getId).containsExactly(1001, 2);
+        assertThat(courseService.gradeHistogram(course)).isEqualTo(Map.of(0, 0L, 1, 0L, 2, 1L, 3, 1L, 4, 1L));
+    }
+}
@@ -0,0 +1,106 @@
+package se.verran.springbootdemowithtests.services;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import se.verran.springbootdemowithtests.events.StudentChangedEvent;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class StatisticsCoalescerTest {
+
+    private StatisticsCoalescer statisticsCoalescer;
+    private AtomicInteger computations;
+
+    @BeforeEach
+    void setUp() {
+        statisticsCoalescer = new StatisticsCoalescer(60_000, new SimpleMeterRegistry());
+        computations = new AtomicInteger();
+    }
+
+    @Test
+    void concurrentRequestsShouldShareOneComputation() throws Exception {
+        // Given
+        CountDownLatch computationStarted = new CountDownLatch(1);
+        CountDownLatch releaseComputation = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+
+        // When
+        List<Future<Integer>> results = new ArrayList<>();
+        for (int i = 0; i < 8; i++)
+            results.add(executor.submit(() -> statisticsCoalescer.get("averagegrade", () -> {
+                computations.incrementAndGet();
+                computationStarted.countDown();
+                try {
+                    releaseComputation.await();
+                } catch (InterruptedException e) {
+                    throw new IllegalStateException(e);
+                }
+                return 42;
+            })));
+        computationStarted.await(5, TimeUnit.SECONDS);
+        releaseComputation.countDown();
+
+        // Then
+        for (Future<Integer> result : results)
+            assertThat(result.get(5, TimeUnit.SECONDS)).isEqualTo(42);
+        executor.shutdown();
+        assertThat(computations.get()).isEqualTo(1);
+        assertThat(statisticsCoalescer.coalescingRatio()).isEqualTo(8.0);
+    }
+
+    @Test
+    void resultShouldBeMemoizedUntilStudentIsWritten() {
+        // Given
+        statisticsCoalescer.get("countstudents", computations::incrementAndGet);
+        statisticsCoalescer.get("countstudents", computations::incrementAndGet);
+        assertThat(computations.get()).isEqualTo(1);
+
+        // When
+        statisticsCoalescer.onStudentChanged(new StudentChangedEvent(StudentChangedEvent.Type.DELETED, 1, null));
+        int result = statisticsCoalescer.get("countstudents", computations::incrementAndGet);
+
+        // Then
+        assertThat(result).isEqualTo(2);
+    }
+
+    @Test
+    void failedComputationShouldNotBeMemoized() {
+        // Given
+        assertThatThrownBy(() -> statisticsCoalescer.get("averagegrade", () -> {
+            throw new IllegalStateException("No students found");
+        })).isInstanceOf(IllegalStateException.class);
+
+        // When
+        String result = statisticsCoalescer.get("averagegrade", () -> "Average grade is 4,0");
+
+        // Then
+        assertThat(result).isEqualTo("Average grade is 4,0");
+    }
+
+    @Test
+    void expiredResultsShouldBeRemoved() {
+        // Given
+        SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+        StatisticsCoalescer expiringCoalescer = new StatisticsCoalescer(0, meterRegistry);
+        expiringCoalescer.get("averagegrade/JAVA1", computations::incrementAndGet);
+        expiringCoalescer.get("averagegrade/JAVA2", computations::incrementAndGet);
+        assertThat(meterRegistry.get("school.statistics.memoized").gauge().value()).isEqualTo(2);
+
+        // When
+        expiringCoalescer.removeExpired();
+
+        // Then
+        assertThat(meterRegistry.get("school.statistics.memoized").gauge().value()).isZero();
+    }
+}
@@ -0,0 +1,77 @@
+package se.verran.springbootdemowithtests.services;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import se.verran.springbootdemowithtests.repositories.GradeRepository;
+import se.verran.springbootdemowithtests.repositories.StudentRepository;
+import se.verran.springbootdemowithtests.sharding.IdRangeShardStrategy;
+import se.verran.springbootdemowithtests.sharding.StudentShards;
+
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.*;
+
+class StudentPurgerTest {
+
+    private StudentPurger studentPurger;
+    private StudentRepository mockedStudentRepository;
+    private GradeRepository mockedGradeRepository;
+
+    @BeforeEach
+    void setUp() {
+        mockedStudentRepository = mock(StudentRepository.class);
+        mockedGradeRepository = mock(GradeRepository.class);
+        studentPurger = new StudentPurger(mockedStudentRepository, mockedGradeRepository, StudentShards.single(), 2);
+    }
+
+    @Test
+    void purgeShouldDeleteInBatchesUntilNoTombstonesAreLeft() {
+        // Given
+        when(mockedStudentRepository.findTombstonedStudentIds(2))
+                .thenReturn(List.of(1, 2), List.of(3));
+        when(mockedStudentRepository.purgeTombstonedStudents(anyList()))
+                .thenAnswer(invocation -> ((List<?>) invocation.getArgument(0)).size());
+
+        // When
+        int purged = studentPurger.purgeTombstonedStudents();
+
+        // Then
+        assertThat(purged).isEqualTo(3);
+        verify(mockedStudentRepository, times(2)).purgeTombstonedStudents(anyList());
+        verify(mockedGradeRepository).deleteGradesOfStudents(List.of(1, 2));
+        verify(mockedGradeRepository).deleteGradesOfStudents(List.of(3));
+    }
+
+    @Test
+    void purgeShouldDoNothingWhenThereAreNoTombstones() {
+        // Given
+        when(mockedStudentRepository.findTombstonedStudentIds(2)).thenReturn(List.of());
+
+        // When
+        int purged = studentPurger.purgeTombstonedStudents();
+
+        // Then
+        assertThat(purged).isZero();
+        verify(mockedStudentRepository, never()).purgeTombstonedStudents(anyList());
+    }
+
+    @Test
+    void purgeShouldRunOnEveryShard() {
+        // Given
+        when(mockedStudentRepository.findTombstonedStudentIds(2))
+                .thenReturn(List.of(1, 2), List.of(1001), List.of());
+        when(mockedStudentRepository.purgeTombstonedStudents(anyList()))
+                .thenAnswer(invocation -> ((List<?>) invocation.getArgument(0)).size());
+
+        // When
+        int purged;
+        try (StudentShards twoShards = new StudentShards(2, new IdRangeShardStrategy(2, 1000))) {
+            purged = new StudentPurger(mockedStudentRepository, mockedGradeRepository, twoShards, 2).purgeTombstonedStudents();
+        }
+
+        // Then
+        assertThat(purged).isEqualTo(3);
+        verify(mockedStudentRepository, times(3)).findTombstonedStudentIds(2);
+    }
+}
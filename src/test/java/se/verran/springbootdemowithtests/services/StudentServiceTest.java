@@ -2,9 +2,13 @@ package se.verran.springbootdemowithtests.services;
 
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.web.server.ResponseStatusException;
+import se.verran.springbootdemowithtests.datasource.RecentWrites;
 import se.verran.springbootdemowithtests.entities.Student;
+import se.verran.springbootdemowithtests.events.StudentChangedEvent;
 import se.verran.springbootdemowithtests.repositories.StudentRepository;
+import se.verran.springbootdemowithtests.sharding.StudentShards;
 
 import java.util.List;
 import java.util.Optional;
@@ -24,7 +28,7 @@ class StudentServiceTest {
         mockedStudentRepository = mock(StudentRepository.class);
 
         // Injektera mocken i StudentService
-        studentService = new StudentService(mockedStudentRepository);
+        studentService = new StudentService(mockedStudentRepository, new RecentWrites(5000), StudentShards.single(), mock(ApplicationEventPublisher.class), false);
     }
 
     @Test
@@ -76,27 +80,67 @@ class StudentServiceTest {
     void deleteStudentShouldThrowExceptionIfStudentNotFound() {
         // Given
         int studentId = 1;
-        when(mockedStudentRepository.existsById(studentId)).thenReturn(false);
+        when(mockedStudentRepository.deleteStudentsById(List.of(studentId), false)).thenReturn(List.of());
 
         // When & Then
         assertThatThrownBy(() -> studentService.deleteStudent(studentId))
                 .isInstanceOf(ResponseStatusException.class)
                 .hasMessageContaining("Could not find and delete student by id " + studentId);
 
-        verify(mockedStudentRepository, never()).deleteById(studentId);
+        verify(mockedStudentRepository, never()).existsById(studentId);
     }
 
     @Test
     void deleteStudentShouldDeleteStudentIfExists() {
         // Given
         int studentId = 1;
-        when(mockedStudentRepository.existsById(studentId)).thenReturn(true);
+        when(mockedStudentRepository.deleteStudentsById(List.of(studentId), false)).thenReturn(List.of(studentId));
 
         // When
         studentService.deleteStudent(studentId);
 
         // Then
-        verify(mockedStudentRepository, times(1)).deleteById(studentId);
+        verify(mockedStudentRepository, times(1)).deleteStudentsById(List.of(studentId), false);
+        verify(mockedStudentRepository, never()).deleteById(studentId);
+    }
+
+    @Test
+    void deleteStudentShouldOnlyTombstoneWhenSoftDeleteIsEnabled() {
+        // Given
+        studentService = new StudentService(mockedStudentRepository, new RecentWrites(5000), StudentShards.single(), mock(ApplicationEventPublisher.class), true);
+        when(mockedStudentRepository.deleteStudentsById(List.of(1), true)).thenReturn(List.of(1));
+
+        // When
+        studentService.deleteStudent(1);
+
+        // Then
+        verify(mockedStudentRepository, times(1)).deleteStudentsById(List.of(1), true);
+    }
+
+    @Test
+    void deleteStudentsShouldOnlyPublishForStudentsThatWereDeleted() {
+        // Given
+        ApplicationEventPublisher eventPublisher = mock(ApplicationEventPublisher.class);
+        studentService = new StudentService(mockedStudentRepository, new RecentWrites(5000), StudentShards.single(), eventPublisher, false);
+        when(mockedStudentRepository.deleteStudentsById(List.of(1, 2, 3), false)).thenReturn(List.of(2));
+
+        // When
+        int deleted = studentService.deleteStudents(List.of(1, 2, 3));
+
+        // Then
+        assertThat(deleted).isEqualTo(1);
+        verify(eventPublisher, times(1)).publishEvent(any(Object.class));
+        verify(eventPublisher).publishEvent(argThat((Object event) -> event instanceof StudentChangedEvent changed && changed.getStudentId() == 2));
+    }
+
+    @Test
+    void deleteStudentsShouldNotTouchRepositoryForEmptyIdList() {
+        // When
+        int deleted = studentService.deleteStudents(List.of());
+
+        // Then
+        assertThat(deleted).isZero();
+        verify(mockedStudentRepository, never()).deleteStudentsById(any(), anyBoolean());
     }
 
     @Test
@@ -133,6 +177,8 @@ class StudentServiceTest {
         // Given
         Student student = new Student();
         student.setId(1);
+        student.setVersion(0);
+        when(mockedStudentRepository.updateStudent(1, 0, student)).thenReturn(0);
         when(mockedStudentRepository.existsById(student.getId())).thenReturn(false);
 
         // When & Then
@@ -144,20 +190,145 @@ class StudentServiceTest {
     }
 
     @Test
-    void updateStudentShouldSaveAndReturnUpdatedStudentIfExists() {
+    void updateStudentShouldUpdateAndReturnStudentWithNextVersionIfExists() {
         // Given
         Student student = new Student();
         student.setId(1);
-        when(mockedStudentRepository.existsById(student.getId())).thenReturn(true);
-        when(mockedStudentRepository.save(student)).thenReturn(student);
+        student.setVersion(2);
+        when(mockedStudentRepository.updateStudent(1, 2, student)).thenReturn(1);
 
         // When
         Student updatedStudent = studentService.updateStudent(student);
 
         // Then
         assertThat(updatedStudent).isEqualTo(student);
-        verify(mockedStudentRepository, times(1)).save(student);
+        assertThat(updatedStudent.getVersion()).isEqualTo(3);
+        // Ingen SELECT före uppdateringen
+        verify(mockedStudentRepository, never()).existsById(1);
+        verify(mockedStudentRepository, never()).findById(1);
+        verify(mockedStudentRepository, never()).save(student);
     }
+
+    @Test
+    void updateStudentShouldThrowConflictIfVersionIsStale() {
+        // Given
+        Student student = new Student();
+        student.setId(1);
+        student.setVersion(0);
+        when(mockedStudentRepository.updateStudent(1, 0, student)).thenReturn(0);
+        when(mockedStudentRepository.existsById(1)).thenReturn(true);
+
+        // When & Then
+        assertThatThrownBy(() -> studentService.updateStudent(student))
+                .isInstanceOf(ResponseStatusException.class)
+                .hasMessageContaining("409 CONFLICT");
+    }
+    @Test
+    void updateStudentShouldThrowConflictIfAnotherStudentHasTheEmail() {
+        // Given
+        Student student = new Student("Anna", "Svensson", null, "taken@example.com");
+        student.setId(1);
+        student.setVersion(0);
+        when(mockedStudentRepository.existsStudentByEmailAndIdNot("taken@example.com", 1)).thenReturn(true);
+
+        // When & Then
+        assertThatThrownBy(() -> studentService.updateStudent(student))
+                .isInstanceOf(ResponseStatusException.class)
+                .hasMessageContaining("Email taken@example.com already exists");
+        verify(mockedStudentRepository, never()).updateStudent(anyInt(), anyInt(), any());
+    }
+
+    @Test
+    void patchStudentWithoutVersionShouldBeBadRequest() {
+        // Given
+        Student changes = new Student();
+        changes.setLastName("Svensson");
+
+        // When & Then
+        assertThatThrownBy(() -> studentService.patchStudent(1, changes))
+                .isInstanceOf(ResponseStatusException.class)
+                .hasMessageContaining("400 BAD_REQUEST");
+        verify(mockedStudentRepository, never()).patchStudent(anyInt(), anyInt(), any());
+    }
+
+    @Test
+    void patchStudentShouldReturnNextVersionWhenOneRowIsUpdated() {
+        // Given
+        Student changes = new Student();
+        changes.setLastName("Svensson");
+        changes.setVersion(2);
+        when(mockedStudentRepository.patchStudent(1, 2, changes)).thenReturn(1);
+
+        // When
+        int newVersion = studentService.patchStudent(1, changes);
+
+        // Then
+        assertThat(newVersion).isEqualTo(3);
+        verify(mockedStudentRepository, never()).existsById(1);
+    }
+
+    @Test
+    void patchStudentShouldAcceptTheStudentsOwnEmail() {
+        // Given
+        Student changes = new Student();
+        changes.setEmail("test@example.com");
+        changes.setVersion(0);
+        when(mockedStudentRepository.existsStudentByEmail("test@example.com")).thenReturn(true);
+        when(mockedStudentRepository.existsStudentByEmailAndIdNot("test@example.com", 1)).thenReturn(false);
+        when(mockedStudentRepository.patchStudent(1, 0, changes)).thenReturn(1);
+
+        // When
+        int newVersion = studentService.patchStudent(1, changes);
+
+        // Then
+        assertThat(newVersion).isEqualTo(1);
+    }
+
+    @Test
+    void patchStudentShouldThrowConflictIfAnotherStudentHasTheEmail() {
+        // Given
+        Student changes = new Student();
+        changes.setEmail("taken@example.com");
+        changes.setVersion(0);
+        when(mockedStudentRepository.existsStudentByEmailAndIdNot("taken@example.com", 1)).thenReturn(true);
+
+        // When & Then
+        assertThatThrownBy(() -> studentService.patchStudent(1, changes))
+                .isInstanceOf(ResponseStatusException.class)
+                .hasMessageContaining("Email taken@example.com already exists");
+        verify(mockedStudentRepository, never()).patchStudent(anyInt(), anyInt(), any());
+    }
+
+    @Test
+    void patchStudentShouldThrowNotFoundIfStudentDoesNotExist() {
+        // Given
+        Student changes = new Student();
+        changes.setLastName("Svensson");
+        changes.setVersion(0);
+        when(mockedStudentRepository.patchStudent(1, 0, changes)).thenReturn(0);
+        when(mockedStudentRepository.existsById(1)).thenReturn(false);
+
+        // When & Then
+        assertThatThrownBy(() -> studentService.patchStudent(1, changes))
+                .isInstanceOf(ResponseStatusException.class)
+                .hasMessageContaining("Could not find and update student by id 1");
+    }
+
+    @Test
+    void patchStudentShouldThrowConflictIfVersionIsStale() {
+        // Given
+        Student changes = new Student();
+        changes.setLastName("Svensson");
+        changes.setVersion(0);
+        when(mockedStudentRepository.patchStudent(1, 0, changes)).thenReturn(0);
+        when(mockedStudentRepository.existsById(1)).thenReturn(true);
+
+        // When & Then
+        assertThatThrownBy(() -> studentService.patchStudent(1, changes))
+                .isInstanceOf(ResponseStatusException.class)
+                .hasMessageContaining("409 CONFLICT");
+    }
+
     @Test
     void setGradeForStudentByIdShouldThrowExceptionForInvalidGradeFormat() {
         // Given
@@ -192,7 +363,7 @@ class StudentServiceTest {
         // Given
         int studentId = 1;
         String validGrade = "4.0";
-        when(mockedStudentRepository.findById(studentId)).thenReturn(java.util.Optional.empty());
+        when(mockedStudentRepository.setGrade(studentId, 4.0)).thenReturn(0);
 
         // When & Then
         assertThatThrownBy(() -> studentService.setGradeForStudentById(studentId, validGrade))
@@ -207,14 +378,17 @@ class StudentServiceTest {
         String validGrade = "4.0";
         Student student = new Student();
         student.setId(studentId);
+        student.setJavaProgrammingGrade(4.0);
+        when(mockedStudentRepository.setGrade(studentId, 4.0)).thenReturn(1);
         when(mockedStudentRepository.findById(studentId)).thenReturn(java.util.Optional.of(student));
-        when(mockedStudentRepository.save(any(Student.class))).thenReturn(student);
 
         // When
         Student updatedStudent = studentService.setGradeForStudentById(studentId, validGrade);
 
         // Then
         assertThat(updatedStudent.getJavaProgrammingGrade()).isEqualTo(4.0);
-        verify(mockedStudentRepository, times(1)).save(student);
+        verify(mockedStudentRepository, times(1)).setGrade(studentId, 4.0);
+        // Ingen merge av en student som kan ha hunnit bli inaktuell
+        verify(mockedStudentRepository, never()).save(any(Student.class));
     }
 }
@@ -0,0 +1,130 @@
+package se.verran.springbootdemowithtests.sharding;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.embedded.EmbeddedDatabase;
+import org.springframework.jdbc.datasource.embedded.EmbeddedDatabaseBuilder;
+import org.springframework.jdbc.datasource.embedded.EmbeddedDatabaseType;
+import se.verran.springbootdemowithtests.entities.Student;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.OptionalInt;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class StudentShardsTest {
+
+    private final List<EmbeddedDatabase> databases = new ArrayList<>();
+    private JdbcTemplate jdbcTemplate;
+    private StudentShards studentShards;
+
+    @BeforeEach
+    void setUp() {
+        // Tre inbäddade H2-databaser, en per shard, med olika antal rader
+        for (int shard = 0; shard < 3; shard++) {
+            EmbeddedDatabase database = new EmbeddedDatabaseBuilder().setType(EmbeddedDatabaseType.H2).setName("shard" + shard).build();
+            JdbcTemplate shardTemplate = new JdbcTemplate(database);
+            shardTemplate.execute("create table student(id int)");
+            for (int row = 0; row <= shard; row++)
+                shardTemplate.update("insert into student values (?)", shard * 100 + row + 1);
+            databases.add(database);
+        }
+        ShardRoutingDataSource routingDataSource = new ShardRoutingDataSource(List.copyOf(databases));
+        routingDataSource.afterPropertiesSet();
+        jdbcTemplate = new JdbcTemplate(routingDataSource);
+        studentShards = new StudentShards(3, new IdRangeShardStrategy(3, 100));
+    }
+
+    @AfterEach
+    void tearDown() {
+        studentShards.close();
+        databases.forEach(EmbeddedDatabase::shutdown);
+    }
+
+    private Integer countStudents() {
+        return jdbcTemplate.queryForObject("select count(*) from student", Integer.class);
+    }
+
+    @Test
+    void onAllShardsShouldGatherOneResultPerShardInShardOrder() {
+        List<Integer> counts = studentShards.onAllShards(this::countStudents);
+
+        assertThat(counts).containsExactly(1, 2, 3);
+    }
+
+    @Test
+    void onAllShardsShouldMergePartialResults() {
+        Integer total = studentShards.onAllShards(this::countStudents, Integer::sum);
+
+        assertThat(total).isEqualTo(6);
+    }
+
+    @Test
+    void firstOnAllShardsShouldKeepOverallFirstOfEveryShardsFirst() {
+        List<Integer> highestIds = studentShards.firstOnAllShards(
+                () -> jdbcTemplate.queryForList("select id from student order by id desc limit 2", Integer.class),
+                Comparator.reverseOrder(), 2);
+
+        assertThat(highestIds).containsExactly(203, 202);
+    }
+
+    @Test
+    void onShardsForIdShouldOnlyAskTheShardOwningTheId() {
+        List<Integer> counts = studentShards.onShardsForId(150, this::countStudents);
+
+        assertThat(counts).containsExactly(2);
+    }
+
+    @Test
+    void onShardsForIdShouldAskAllShardsWhenIdIsOutsideTheRanges() {
+        List<Integer> counts = studentShards.onShardsForId(1000, this::countStudents);
+
+        assertThat(counts).containsExactly(1, 2, 3);
+    }
+
+    @Test
+    void withoutShardSelectedQueriesShouldGoToFirstShard() {
+        assertThat(countStudents()).isEqualTo(1);
+    }
+
+    @Test
+    void idRangeStrategyShouldMapIdsToTheirRange() {
+        IdRangeShardStrategy strategy = new IdRangeShardStrategy(3, 100);
+
+        assertThat(strategy.shardForId(1)).isEqualTo(OptionalInt.of(0));
+        assertThat(strategy.shardForId(100)).isEqualTo(OptionalInt.of(0));
+        assertThat(strategy.shardForId(101)).isEqualTo(OptionalInt.of(1));
+        assertThat(strategy.shardForId(301)).isEmpty();
+    }
+
+    @Test
+    void emailHashStrategyShouldPlaceSameEmailOnSameShardRegardlessOfCase() {
+        EmailHashShardStrategy strategy = new EmailHashShardStrategy(3);
+        Student student = new Student("Rickard", "Ekstedt", null, "test@example.com");
+        Student sameEmail = new Student("Rickard", "Ekstedt", null, "TEST@example.com");
+
+        assertThat(strategy.shardForNewStudent(student)).isEqualTo(strategy.shardForNewStudent(sameEmail));
+        assertThat(strategy.shardForId(1)).isEmpty();
+    }
+
+    @Test
+    void workOnOneShardShouldNotFanOutAgain() {
+        assertThatThrownBy(() -> studentShards.onShard(1, () -> studentShards.onAllShards(this::countStudents)))
+                .isInstanceOf(IllegalStateException.class)
+                .hasMessageContaining("can't run work on all shards");
+        assertThatThrownBy(() -> studentShards.onAllShards(() -> studentShards.onAllShards(this::countStudents)))
+                .isInstanceOf(IllegalStateException.class);
+    }
+
+    @Test
+    void fanOutThreadsShouldBeNumbered() {
+        List<String> threadNames = studentShards.onAllShards(() -> Thread.currentThread().getName());
+
+        assertThat(threadNames).allSatisfy(name -> assertThat(name).matches("student-shard-query-\\d+"));
+    }
+}
@@ -0,0 +1,39 @@
+#!/bin/sh
+# Starts the application and prints the time until the first successful request.
+# Usage: ./startup-benchmark.sh [plain|startup]
+#   plain    the regular jar, build with ./mvnw package
+#   startup  the AOT + CDS build, build with ./mvnw -Pstartup package
+set -e
+
+MODE=${1:-plain}
+PORT=${PORT:-8080}
+URL="http://localhost:$PORT/edu/api/v1/school/countstudents"
+JAR=$(ls target/SpringBootDemoWithTests-*.jar | grep -v original | head -n 1)
+
+case "$MODE" in
+  plain)
+    set -- java -jar "$JAR" ;;
+  startup)
+    set -- java -XX:SharedArchiveFile=target/application/application.jsa \
+      -Dspring.aot.enabled=true -Dspring.profiles.active=startup \
+      -jar "target/application/$(basename "$JAR")" ;;
+  *)
+    echo "Unknown mode $MODE, use plain or startup" >&2
+    exit 1 ;;
+esac
+
+START=$(date +%s%N)
+"$@" --server.port="$PORT" > target/startup-benchmark.log 2>&1 &
+PID=$!
+trap 'kill $PID 2>/dev/null' EXIT
+
+until curl -s -o /dev/null -w '%{http_code}' "$URL" | grep -q '^2'; do
+  if ! kill -0 $PID 2>/dev/null; then
+    echo "Application exited, see target/startup-benchmark.log" >&2
+    exit 1
+  fi
+  sleep 0.05
+done
+END=$(date +%s%N)
+
+echo "$MODE: first successful request after $(( (END - START) / 1000000 )) ms"